@@ -0,0 +1,115 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full cleanup sweep over synthetic worlds: the compiled {@link EntityRules} path used by
+ * {@link CleanupTask}, against the original {@code List.contains} type check.
+ * {@link CleanupTask#sweep} is measured rather than {@link CleanupTask#run()}: run() only picks the worlds,
+ * broadcasts and hands the batches to the scheduler, which needs a running server and plugin instance.
+ * Every entity goes through sweep either way.
+ * A sweep removes what it matches, so every measured sweep needs freshly restored worlds. Restoring before
+ * each invocation ({@code Level.Invocation}) would put a timestamp and the restore around every call, which
+ * skews short sweeps, so each iteration is instead a single timed sweep (single-shot mode, batch size 1) with
+ * the worlds restored at {@code Level.Iteration}, outside the measurement.
+ * The trial setup runs both paths once and fails the run if either removes the wrong number of entities;
+ * the exact counts are covered by the unit tests as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = 1)
+@Measurement(iterations = 50, batchSize = 1)
+@Fork(1)
+public class CleanupBenchmark {
+
+    @Param({"1000", "50000", "500000"})
+    public int entities;
+
+    @Param({"1", "4"})
+    public int worlds;
+
+    @Param({"HOSTILE", "MIXED", "PASSIVE"})
+    public SyntheticWorlds.Mix mix;
+
+    private EntityRules rules;
+    private SyntheticWorlds synthetic;
+    private CleanupMetrics metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rules = SyntheticWorlds.defaultRules();
+        synthetic = SyntheticWorlds.generate(mix, entities, worlds);
+        metrics = new CleanupMetrics();
+
+        check("sweep", sweep());
+        synthetic.reset();
+        // The legacy check ignores name tags, so it removes every entity of a listed type
+        int legacyExpected = synthetic.expectedListed();
+        int legacyRemoved = legacy();
+        if (legacyRemoved != legacyExpected) {
+            throw new IllegalStateException("legacy removed " + legacyRemoved + " entities, expected " + legacyExpected);
+        }
+        synthetic.reset();
+    }
+
+    @Setup(Level.Iteration)
+    public void restore() {
+        synthetic.reset();
+    }
+
+    @Benchmark
+    public int sweep() {
+        CleanupMetrics.Run run = metrics.startRun();
+        int removed = 0;
+        for (FakeWorlds.FakeWorld world : synthetic.worlds()) {
+            removed += CleanupTask.sweep(rules, null, run, null, world.world(), world.getEntities(), 0);
+        }
+        run.finish();
+        return removed;
+    }
+
+    /**
+     * The original cleanup loop: a linear {@code List.contains} over the configured types for every entity.
+     */
+    @Benchmark
+    public int legacy() {
+        List<EntityType> entitiesToClear = rules.getTypes();
+        int removed = 0;
+        for (FakeWorlds.FakeWorld world : synthetic.worlds()) {
+            for (Entity entity : world.getEntities()) {
+                if (entitiesToClear.contains(entity.getType())) {
+                    entity.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private void check(String name, int removed) {
+        int expected = synthetic.expectedMatches();
+        if (removed != expected) {
+            throw new IllegalStateException(name + " removed " + removed + " entities, expected " + expected);
+        }
+        if (synthetic.liveCount() != entities - expected) {
+            throw new IllegalStateException(name + " left " + synthetic.liveCount() + " entities, expected " + (entities - expected));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a counting pass over synthetic worlds: {@link EntityCountingTask#countMatching} against the
+ * original {@code List.contains} loop. The entity lists are copied once in setup, so only the matching
+ * is measured, not the world's list copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CountingBenchmark {
+
+    @Param({"1000", "50000", "500000"})
+    public int entities;
+
+    @Param({"1", "4"})
+    public int worlds;
+
+    @Param({"HOSTILE", "MIXED", "PASSIVE"})
+    public SyntheticWorlds.Mix mix;
+
+    private EntityRules rules;
+    private List<List<Entity>> snapshots;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rules = SyntheticWorlds.defaultRules();
+        SyntheticWorlds synthetic = SyntheticWorlds.generate(mix, entities, worlds);
+        snapshots = new ArrayList<>();
+        for (FakeWorlds.FakeWorld world : synthetic.worlds()) {
+            snapshots.add(world.getEntities());
+        }
+
+        int counted = countMatching();
+        if (counted != synthetic.expectedMatches()) {
+            throw new IllegalStateException("countMatching returned " + counted + ", expected " + synthetic.expectedMatches());
+        }
+    }
+
+    @Benchmark
+    public int countMatching() {
+        int count = 0;
+        for (List<Entity> entities : snapshots) {
+            count += EntityCountingTask.countMatching(rules, entities);
+        }
+        return count;
+    }
+
+    /**
+     * The original counting loop: a linear {@code List.contains} over the configured types for every entity.
+     */
+    @Benchmark
+    public int legacy() {
+        List<EntityType> entitiesToClear = rules.getTypes();
+        int count = 0;
+        for (List<Entity> entities : snapshots) {
+            for (Entity entity : entities) {
+                if (entitiesToClear.contains(entity.getType())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.entity.EntityType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the type check alone, for every entity type in a shuffled sequence: the original
+ * {@code ArrayList.contains}, an {@link EnumSet}, and the ordinal-indexed lookup in {@link EntityRules}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeMatchingBenchmark {
+
+    private static final int SEQUENCE_LENGTH = 4096;
+
+    private EntityRules rules;
+    private List<EntityType> list;
+    private Set<EntityType> enumSet;
+    private EntityType[] sequence;
+
+    @Setup
+    public void setUp() {
+        rules = SyntheticWorlds.defaultRules();
+        list = new ArrayList<>(rules.getTypes());
+        enumSet = EnumSet.noneOf(EntityType.class);
+        enumSet.addAll(list);
+
+        EntityType[] all = EntityType.values();
+        Random random = new Random(42);
+        sequence = new EntityType[SEQUENCE_LENGTH];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = all[random.nextInt(all.length)];
+        }
+
+        if (arrayList() != enumSet() || enumSet() != ordinalLookup()) {
+            throw new IllegalStateException("type checks disagree");
+        }
+    }
+
+    @Benchmark
+    public int arrayList() {
+        int matches = 0;
+        for (EntityType type : sequence) {
+            if (list.contains(type)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int enumSet() {
+        int matches = 0;
+        for (EntityType type : sequence) {
+            if (enumSet.contains(type)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int ordinalLookup() {
+        int matches = 0;
+        for (EntityType type : sequence) {
+            if (rules.matchesType(type)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
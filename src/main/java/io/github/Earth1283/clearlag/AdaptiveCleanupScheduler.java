@@ -0,0 +1,210 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.logging.Logger;
+
+/**
+ * Scales the scheduled cleanup from the server's tick time instead of a fixed period.
+ * Runs on an async timer every sample period, reads Paper's average tick time (MSPT), and scales the
+ * cleanup interval and the entity threshold between their relaxed and stressed values: the closer
+ * MSPT gets to the 50 ms tick limit, the more often it cleans and the fewer entities it tolerates.
+ * The scaled values only change once MSPT has moved by more than the hysteresis band since the last
+ * change, so a server hovering around one value does not flip between settings every sample.
+ * {@link CleanupCoordinator} reads the interval on every tick of its countdown.
+ * Worlds with their own schedule are scaled by the same factors, applied to their own interval and threshold.
+ */
+public class AdaptiveCleanupScheduler implements Runnable {
+
+    private static final double SMOOTHING = 0.3; // Weight of the newest sample in the moving average
+
+    private final EntityCleanupPlugin plugin;
+    private final long baseIntervalTicks;
+    private final int baseThreshold;
+    private final long sampleTicks;
+    private final double relaxedMspt;
+    private final double stressedMspt;
+    private final double hysteresisMspt;
+    private final double minIntervalFactor;
+    private final double maxIntervalFactor;
+    private final double minThresholdFactor;
+    private final double maxThresholdFactor;
+
+    private double smoothedMspt = Double.NaN;
+    private double appliedMspt = Double.NaN; // MSPT the current interval and threshold were computed from
+    private boolean unsupported; // The server does not report tick times (e.g. Folia)
+
+    // Read by the counting tasks on other threads
+    private volatile long intervalTicks;
+    private volatile int threshold;
+    private volatile double intervalFactor = 1.0;
+    private volatile double thresholdFactor = 1.0;
+
+    private AdaptiveCleanupScheduler(EntityCleanupPlugin plugin, long baseIntervalTicks, int baseThreshold, long sampleTicks,
+                                     double relaxedMspt, double stressedMspt, double hysteresisMspt,
+                                     double minIntervalFactor, double maxIntervalFactor,
+                                     double minThresholdFactor, double maxThresholdFactor) {
+        this.plugin = plugin;
+        this.baseIntervalTicks = baseIntervalTicks;
+        this.baseThreshold = baseThreshold;
+        this.sampleTicks = sampleTicks;
+        this.relaxedMspt = relaxedMspt;
+        this.stressedMspt = stressedMspt;
+        this.hysteresisMspt = hysteresisMspt;
+        this.minIntervalFactor = minIntervalFactor;
+        this.maxIntervalFactor = maxIntervalFactor;
+        this.minThresholdFactor = minThresholdFactor;
+        this.maxThresholdFactor = maxThresholdFactor;
+        this.intervalTicks = baseIntervalTicks;
+        this.threshold = baseThreshold;
+    }
+
+    /**
+     * Reads the {@code adaptive-cleanup} section of config.yml.
+     * Invalid values are logged and replaced by their defaults.
+     *
+     * @param plugin            The plugin.
+     * @param section           The {@code adaptive-cleanup} section.
+     * @param baseIntervalTicks The configured cleanup interval, scaled by the interval factors.
+     * @param baseThreshold     The configured threshold, scaled by the threshold factors.
+     * @param logger            Logger for invalid values.
+     * @return The scheduler.
+     */
+    public static AdaptiveCleanupScheduler load(EntityCleanupPlugin plugin, ConfigurationSection section,
+                                                long baseIntervalTicks, int baseThreshold, Logger logger) {
+        long sampleTicks = section.getLong("sample-seconds", 5) * 20L; // Default 5 seconds
+        double relaxedMspt = section.getDouble("relaxed-mspt", 25.0);
+        double stressedMspt = section.getDouble("stressed-mspt", 45.0);
+        double hysteresisMspt = section.getDouble("hysteresis-mspt", 5.0);
+        double minIntervalFactor = section.getDouble("min-interval-factor", 0.25);
+        double maxIntervalFactor = section.getDouble("max-interval-factor", 2.0);
+        double minThresholdFactor = section.getDouble("min-threshold-factor", 0.5);
+        double maxThresholdFactor = section.getDouble("max-threshold-factor", 1.5);
+
+        if (sampleTicks <= 0) {
+            logger.warning("config.yml 中的 adaptive-cleanup.sample-seconds 无效。使用默认值 5 秒。");
+            sampleTicks = 5 * 20L;
+        }
+        if (relaxedMspt < 0 || stressedMspt <= relaxedMspt) {
+            logger.warning("config.yml 中的 adaptive-cleanup.relaxed-mspt / stressed-mspt 无效（stressed-mspt 必须大于 relaxed-mspt）。使用默认值 25 / 45。");
+            relaxedMspt = 25.0;
+            stressedMspt = 45.0;
+        }
+        if (hysteresisMspt < 0) {
+            logger.warning("config.yml 中的 adaptive-cleanup.hysteresis-mspt 无效。使用默认值 5。");
+            hysteresisMspt = 5.0;
+        }
+        if (minIntervalFactor <= 0 || maxIntervalFactor < minIntervalFactor) {
+            logger.warning("config.yml 中的 adaptive-cleanup.min-interval-factor / max-interval-factor 无效。使用默认值 0.25 / 2.0。");
+            minIntervalFactor = 0.25;
+            maxIntervalFactor = 2.0;
+        }
+        if (minThresholdFactor < 0 || maxThresholdFactor < minThresholdFactor) {
+            logger.warning("config.yml 中的 adaptive-cleanup.min-threshold-factor / max-threshold-factor 无效。使用默认值 0.5 / 1.5。");
+            minThresholdFactor = 0.5;
+            maxThresholdFactor = 1.5;
+        }
+
+        return new AdaptiveCleanupScheduler(plugin, baseIntervalTicks, baseThreshold, sampleTicks, relaxedMspt, stressedMspt,
+                hysteresisMspt, minIntervalFactor, maxIntervalFactor, minThresholdFactor, maxThresholdFactor);
+    }
+
+    /**
+     * Gets how often the scheduler should be run.
+     *
+     * @return The sample period in ticks.
+     */
+    public long getSampleTicks() {
+        return sampleTicks;
+    }
+
+    /**
+     * Gets the current cleanup interval.
+     *
+     * @return The interval in ticks.
+     */
+    public long getIntervalTicks() {
+        return intervalTicks;
+    }
+
+    /**
+     * Gets the current entity threshold.
+     *
+     * @return The threshold.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Scales the interval of a world with its own schedule by the current interval factor.
+     *
+     * @param baseIntervalTicks The world's configured interval.
+     * @return The interval in ticks, never shorter than the sample period.
+     */
+    public long scaleInterval(long baseIntervalTicks) {
+        return Math.max(sampleTicks, Math.round(baseIntervalTicks * intervalFactor));
+    }
+
+    /**
+     * Scales the threshold of a world with its own schedule by the current threshold factor.
+     *
+     * @param baseThreshold The world's configured threshold.
+     * @return The threshold.
+     */
+    public int scaleThreshold(int baseThreshold) {
+        return (int) Math.round(baseThreshold * thresholdFactor);
+    }
+
+    /**
+     * Gets the smoothed MSPT the scheduler is working from.
+     *
+     * @return The MSPT, or NaN if nothing has been sampled yet.
+     */
+    public double getSmoothedMspt() {
+        return smoothedMspt;
+    }
+
+    @Override
+    public void run() {
+        if (unsupported) {
+            return;
+        }
+        double mspt;
+        try {
+            mspt = Bukkit.getAverageTickTime();
+        } catch (UnsupportedOperationException e) {
+            // Folia has no single server tick; keep the configured values
+            unsupported = true;
+            plugin.getLogger().warning("当前服务器不支持读取 MSPT，自适应清理将使用固定的间隔和阈值。");
+            return;
+        }
+
+        smoothedMspt = Double.isNaN(smoothedMspt) ? mspt : smoothedMspt + SMOOTHING * (mspt - smoothedMspt);
+
+        // Hysteresis: only re-scale once MSPT has moved far enough from the value the settings are based on
+        if (!Double.isNaN(appliedMspt) && Math.abs(smoothedMspt - appliedMspt) < hysteresisMspt) {
+            return;
+        }
+        appliedMspt = smoothedMspt;
+
+        // 0 when relaxed, 1 when stressed
+        double load = Math.max(0.0, Math.min(1.0, (appliedMspt - relaxedMspt) / (stressedMspt - relaxedMspt)));
+        intervalFactor = lerp(maxIntervalFactor, minIntervalFactor, load);
+        thresholdFactor = lerp(maxThresholdFactor, minThresholdFactor, load);
+        long newInterval = scaleInterval(baseIntervalTicks);
+        int newThreshold = scaleThreshold(baseThreshold);
+
+        if (newInterval != intervalTicks || newThreshold != threshold) {
+            intervalTicks = newInterval;
+            threshold = newThreshold;
+            plugin.getLogger().info(String.format("服务器 MSPT %.1f ms，清理间隔调整为 %d 秒，实体阈值调整为 %d。",
+                    appliedMspt, newInterval / 20, newThreshold));
+        }
+    }
+
+    private static double lerp(double from, double to, double t) {
+        return from + (to - from) * t;
+    }
+}
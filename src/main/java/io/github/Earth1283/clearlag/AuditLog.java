@@ -0,0 +1,369 @@
+package io.github.Earth1283.clearlag;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records every entity removed by a cleanup: time, world, chunk, block coordinates, type, custom name and trigger.
+ * The thread removing the entity only claims a preallocated slot in a bounded lock-free ring and copies a few
+ * fields into it; nothing is formatted or allocated there. A background thread drains the ring in batches and
+ * appends tab-separated lines to gzip files, starting a new file each day or once a file reaches its size
+ * limit on disk, and deleting the oldest files beyond the configured count. The compressed stream is flushed
+ * on a timer rather than after every batch, so a busy cleanup doesn't cut the stream into tiny deflate blocks.
+ * If the ring is full the record is dropped and counted rather than blocking the caller.
+ */
+public class AuditLog {
+
+    private static final int BATCH_SIZE = 1024; // Records written per drain before checking rotation again
+    private static final long IDLE_NANOS = 200_000_000L; // Writer sleep when the ring is empty
+    private static final long FLUSH_NANOS = 5_000_000_000L; // Longest time written records stay unflushed
+    private static final long DROP_REPORT_NANOS = 60_000_000_000L; // At most one drop warning per minute
+    private static final String FILE_PREFIX = "removals-";
+    private static final String FILE_SUFFIX = ".log.gz";
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    // Scratch location reused for every removal recorded on the same thread
+    private static final ThreadLocal<Location> SCRATCH_LOCATION = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    /**
+     * One record in the ring. The sequence tells producers and the writer whose turn the slot is.
+     */
+    private static final class Slot {
+        private volatile long sequence;
+        private long time;
+        private String world;
+        private int x;
+        private int y;
+        private int z;
+        private EntityType type;
+        private Component customName;
+        private CleanupTrigger trigger;
+    }
+
+    /**
+     * Records the removals of one cleanup run with the run's trigger.
+     */
+    public final class Recorder {
+        private final CleanupTrigger trigger;
+
+        private Recorder(CleanupTrigger trigger) {
+            this.trigger = trigger;
+        }
+
+        /**
+         * Records an entity that is about to be removed. Must be called on the thread that owns the entity.
+         *
+         * @param entity The entity.
+         */
+        public void record(Entity entity) {
+            Location location = entity.getLocation(SCRATCH_LOCATION.get());
+            offer(entity.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ(),
+                    entity.getType(), entity.customName(), trigger);
+        }
+    }
+
+    private final File directory;
+    private final Logger logger;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Next position to claim, shared by the producers
+    private long head; // Next position to write, only touched by the writer thread
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    // Writer thread state
+    private Writer out;
+    private CountingOutputStream fileOut; // Below the gzip layer, so it counts the compressed bytes on disk
+    private LocalDate fileDay;
+    private boolean unflushed; // Records written since the last flush
+    private long lastFlushNanos;
+    private long reportedDropped;
+    private long lastDropReportNanos;
+
+    /**
+     * @param directory    Directory the log files are written to.
+     * @param bufferSize   Number of records the ring holds; rounded up to a power of two.
+     * @param maxFileBytes Compressed size on disk after which a new file is started.
+     * @param maxFiles     Number of files kept; older ones are deleted.
+     * @param logger       Logger for write errors and dropped records.
+     */
+    public AuditLog(File directory, int bufferSize, long maxFileBytes, int maxFiles, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.lastDropReportNanos = System.nanoTime() - DROP_REPORT_NANOS; // Report the first drop straight away
+
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+    }
+
+    /**
+     * Creates a recorder for the removals of one cleanup run.
+     *
+     * @param trigger Why the cleanup runs.
+     * @return The recorder.
+     */
+    public Recorder recorder(CleanupTrigger trigger) {
+        return new Recorder(trigger);
+    }
+
+    /**
+     * Gets the number of records dropped because the ring was full.
+     *
+     * @return The drop count since startup.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Starts the background writer thread.
+     */
+    public void start() {
+        if (writerThread != null) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::writeLoop, "clearlag-audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the writer after it has written everything still in the ring, waiting a few seconds at most.
+     */
+    public void stop() {
+        Thread thread = writerThread;
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(5000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+    }
+
+    private void offer(String world, int x, int y, int z, EntityType type, Component customName, CleanupTrigger trigger) {
+        long position = tail.get();
+        Slot slot;
+        while (true) {
+            slot = slots[(int) (position & mask)];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break; // Slot claimed
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.incrementAndGet(); // The writer hasn't freed this slot yet: ring is full
+                return;
+            } else {
+                position = tail.get(); // Another producer claimed it first
+            }
+        }
+
+        slot.time = System.currentTimeMillis();
+        slot.world = world;
+        slot.x = x;
+        slot.y = y;
+        slot.z = z;
+        slot.type = type;
+        slot.customName = customName;
+        slot.trigger = trigger;
+        slot.sequence = position + 1; // Publish to the writer
+    }
+
+    private void writeLoop() {
+        StringBuilder line = new StringBuilder(128);
+        while (true) {
+            boolean stopping = !running;
+            int written = 0;
+            try {
+                written = drain(line);
+                unflushed |= written > 0;
+                long now = System.nanoTime();
+                if (unflushed && out != null && now - lastFlushNanos >= FLUSH_NANOS) {
+                    out.flush();
+                    unflushed = false;
+                    lastFlushNanos = now;
+                }
+            } catch (IOException e) {
+                logger.warning("无法写入审计日志: " + e.getMessage());
+                closeQuietly();
+            }
+            reportDrops();
+
+            if (written == 0) {
+                if (stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        closeQuietly();
+    }
+
+    /**
+     * Writes up to one batch of records.
+     *
+     * @return The number of records taken from the ring.
+     */
+    private int drain(StringBuilder line) throws IOException {
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            Slot slot = slots[(int) (head & mask)];
+            if (slot.sequence != head + 1) {
+                break; // Nothing published at this position yet
+            }
+
+            line.setLength(0);
+            Instant time = Instant.ofEpochMilli(slot.time);
+            LocalDate day = LocalDate.ofInstant(time, ZoneId.systemDefault());
+            line.append(TIME_FORMAT.format(time.atZone(ZoneId.systemDefault()))).append('\t')
+                    .append(slot.world).append('\t')
+                    .append(slot.x >> 4).append(',').append(slot.z >> 4).append('\t')
+                    .append(slot.x).append(',').append(slot.y).append(',').append(slot.z).append('\t')
+                    .append(slot.type.name()).append('\t')
+                    .append(slot.customName == null ? "-" : sanitize(PlainTextComponentSerializer.plainText().serialize(slot.customName))).append('\t')
+                    .append(slot.trigger.name().toLowerCase()).append('\n');
+
+            // Release the slot before the (slow) write; don't keep references alive in the ring
+            slot.world = null;
+            slot.customName = null;
+            slot.sequence = head + slots.length;
+            head++;
+            count++;
+
+            writerFor(day).write(line.toString());
+        }
+        return count;
+    }
+
+    private Writer writerFor(LocalDate day) throws IOException {
+        // Data still buffered above the counter isn't included, so a file can overshoot by a few kilobytes
+        if (out != null && day.equals(fileDay) && fileOut.count < maxFileBytes) {
+            return out;
+        }
+        closeQuietly();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录 " + directory.getPath());
+        }
+        // Never append to an existing file: pick the next free index for the day
+        File file;
+        int index = 1;
+        do {
+            file = new File(directory, FILE_PREFIX + day + "." + index++ + FILE_SUFFIX);
+        } while (file.exists());
+
+        fileOut = new CountingOutputStream(new FileOutputStream(file));
+        // Sync flush, so a flushed file can be read with zcat while it is still being written
+        out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(fileOut, 8192, true), StandardCharsets.UTF_8));
+        fileDay = day;
+        lastFlushNanos = System.nanoTime();
+        pruneOldFiles();
+        return out;
+    }
+
+    private void pruneOldFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null || files.length <= maxFiles) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            if (!files[i].delete()) {
+                logger.warning("无法删除旧的审计日志 " + files[i].getName());
+            }
+        }
+    }
+
+    private void reportDrops() {
+        long total = dropped.get();
+        long now = System.nanoTime();
+        if (total != reportedDropped && (!running || now - lastDropReportNanos >= DROP_REPORT_NANOS)) {
+            lastDropReportNanos = now;
+            logger.warning("审计日志缓冲区已满，已丢弃 " + (total - reportedDropped) + " 条记录（累计 " + total + " 条）。");
+            reportedDropped = total;
+        }
+    }
+
+    private void closeQuietly() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warning("无法关闭审计日志: " + e.getMessage());
+        }
+        out = null;
+        fileOut = null;
+        unflushed = false;
+    }
+
+    private static String sanitize(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * Counts the bytes passed through to the file.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
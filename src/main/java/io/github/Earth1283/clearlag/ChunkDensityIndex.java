@@ -0,0 +1,228 @@
+package io.github.Earth1283.clearlag;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-chunk counts of entities whose type is configured for cleanup, keyed by packed chunk coordinates.
+ * Updated from Paper's entity add/remove events, and rebuilt periodically since entities that walk into
+ * another chunk don't fire an event. Lets the density cleanup visit only the chunks over the cap.
+ */
+public class ChunkDensityIndex implements Listener {
+
+    private final EntityCleanupPlugin plugin;
+    private final Map<UUID, LongIntHashMap> worlds = new ConcurrentHashMap<>();
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    /**
+     * Chunks over the cap, hottest first.
+     */
+    public static final class HotChunks {
+        private final World[] worlds;
+        private final long[] keys;
+
+        private HotChunks(World[] worlds, long[] keys) {
+            this.worlds = worlds;
+            this.keys = keys;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public World world(int i) {
+            return worlds[i];
+        }
+
+        public int chunkX(int i) {
+            return ChunkDensityIndex.chunkX(keys[i]);
+        }
+
+        public int chunkZ(int i) {
+            return ChunkDensityIndex.chunkZ(keys[i]);
+        }
+    }
+
+    public ChunkDensityIndex(EntityCleanupPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Packs chunk coordinates into a single key.
+     *
+     * @param chunkX The chunk x coordinate.
+     * @param chunkZ The chunk z coordinate.
+     * @return The packed key.
+     */
+    public static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX & 0xFFFFFFFFL) | (((long) chunkZ & 0xFFFFFFFFL) << 32);
+    }
+
+    public static int chunkX(long key) {
+        return (int) key;
+    }
+
+    public static int chunkZ(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * Rebuilds the whole index from the entities currently in every world.
+     * Must be called on the main server thread (Paper) or the global region thread (Folia).
+     */
+    public void rebuild() {
+        Map<UUID, LongIntHashMap> fresh = new ConcurrentHashMap<>();
+
+        plugin.getPluginScheduler().visitEntities((world, entities) -> {
+            EntityRules rules = plugin.getRules(world);
+            LongIntHashMap counts = fresh.computeIfAbsent(world.getUID(), uid -> new LongIntHashMap());
+            Location location = new Location(null, 0, 0, 0);
+            // Batches of the same world may be visited concurrently on Folia
+            synchronized (counts) {
+                for (Entity entity : entities) {
+                    if (rules.matchesType(entity.getType())) {
+                        entity.getLocation(location);
+                        counts.addTo(key(location.getBlockX() >> 4, location.getBlockZ() >> 4), 1);
+                    }
+                }
+            }
+            return 0;
+        }, ignored -> {
+            synchronized (this) {
+                for (World world : Bukkit.getWorlds()) {
+                    worlds.put(world.getUID(), fresh.getOrDefault(world.getUID(), new LongIntHashMap()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the number of matching entities in a chunk.
+     *
+     * @param world  The world.
+     * @param chunkX The chunk x coordinate.
+     * @param chunkZ The chunk z coordinate.
+     * @return The indexed count.
+     */
+    public synchronized int getCount(World world, int chunkX, int chunkZ) {
+        LongIntHashMap counts = worlds.get(world.getUID());
+        return counts == null ? 0 : counts.get(key(chunkX, chunkZ));
+    }
+
+    /**
+     * Collects the chunks holding more than {@code cap} matching entities in the given worlds, hottest first.
+     *
+     * @param targetWorlds The worlds to look in.
+     * @param cap          The per-chunk cap.
+     * @param limit        The maximum number of chunks to return.
+     * @param spawnRates   Ranks chunks by recent spawn rate before count, or null to rank by count only.
+     * @return The hot chunks, ordered by descending spawn rate, then count.
+     */
+    public synchronized HotChunks getHotChunks(List<World> targetWorlds, int cap, int limit, SpawnHotspotTracker spawnRates) {
+        List<World> hotWorlds = new ArrayList<>();
+        LongArrayBuilder hotKeys = new LongArrayBuilder();
+        LongArrayBuilder order = new LongArrayBuilder(); // count << 32 | position, sorted to rank chunks
+
+        for (World world : targetWorlds) {
+            LongIntHashMap counts = worlds.get(world.getUID());
+            if (counts == null) {
+                continue;
+            }
+            counts.forEach((key, count) -> {
+                if (count > cap) {
+                    long rank = count;
+                    if (spawnRates != null) {
+                        // Spawns per minute in tenths, above the count capped to 16 bits
+                        int rate = (int) Math.min(0x7FFF, spawnRates.getSpawnsPerMinute(world, chunkX(key), chunkZ(key)) * 10);
+                        rank = ((long) rate << 16) | Math.min(count, 0xFFFF);
+                    }
+                    order.add((rank << 32) | hotKeys.size());
+                    hotKeys.add(key);
+                    hotWorlds.add(world);
+                }
+            });
+        }
+
+        long[] ranked = order.toArray();
+        Arrays.sort(ranked);
+        int size = Math.min(limit, ranked.length);
+        World[] resultWorlds = new World[size];
+        long[] resultKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            int position = (int) ranked[ranked.length - 1 - i]; // Highest counts are at the end
+            resultWorlds[i] = hotWorlds.get(position);
+            resultKeys[i] = hotKeys.get(position);
+        }
+        return new HotChunks(resultWorlds, resultKeys);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityAdd(EntityAddToWorldEvent event) {
+        update(event.getEntity(), 1);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemove(EntityRemoveFromWorldEvent event) {
+        update(event.getEntity(), -1);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        worlds.remove(event.getWorld().getUID());
+    }
+
+    private synchronized void update(Entity entity, int delta) {
+        World world = entity.getWorld();
+        if (!plugin.getRules(world).matchesType(entity.getType())) {
+            return;
+        }
+        worlds.computeIfAbsent(world.getUID(), uid -> new LongIntHashMap()).addTo(keyOf(entity), delta);
+    }
+
+    private long keyOf(Entity entity) {
+        Location location = entity.getLocation(scratch);
+        return key(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    /**
+     * Minimal growable long array, to collect candidates without boxing.
+     */
+    private static final class LongArrayBuilder {
+        private long[] data = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size << 1);
+            }
+            data[size++] = value;
+        }
+
+        long get(int i) {
+            return data[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package io.github.Earth1283.clearlag;
+
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The single entry point for starting cleanups of one scope: the shared worlds, or one world with its own
+ * schedule. The timer countdown, the threshold checks and {@code /clearlag} all go through {@link #request},
+ * and the coordinator moves through idle → pending → running → cooldown:
+ * <ul>
+ *     <li>requests while a sweep is pending are merged into it;</li>
+ *     <li>automatic requests while a sweep is running are dropped, since that sweep already covers them;
+ *     a manual request is attached to a running manual sweep, but is held back until after an automatic
+ *     one, which may not cover every world a manual cleanup does;</li>
+ *     <li>requests during the cooldown after a sweep are held back and merged into one sweep when it ends.</li>
+ * </ul>
+ * A merged sweep broadcasts to players if any automatic request went into it, even when a manual request
+ * widened its scope. The scheduled countdown is advanced by {@link #tick(long)} from one fixed timer and
+ * restarts whenever a sweep finishes, so no scheduler task is ever cancelled or re-registered. A manual
+ * sweep of every world also restarts the countdown and cooldown of the worlds with their own schedule.
+ * All methods may be called from any thread.
+ */
+public class CleanupCoordinator {
+
+    /**
+     * Where the coordinator is in the cleanup cycle.
+     */
+    public enum State {
+        /** No sweep requested. */
+        IDLE,
+        /** A sweep is requested and will start on the next tick of the main or global region thread. */
+        PENDING,
+        /** A sweep is in progress. */
+        RUNNING,
+        /** A sweep just finished; new requests wait until the minimum gap has passed. */
+        COOLDOWN
+    }
+
+    /**
+     * What the coordinator needs from the plugin: scheduling on the global thread, running the sweep itself,
+     * messages and the other coordinators. Tests run the cycle against their own implementation.
+     */
+    interface Host {
+        void runGlobal(Runnable task);
+
+        void runGlobalLater(Runnable task, long delayTicks);
+
+        /**
+         * Runs a sweep of the given world, or of the shared worlds when it is null. The sweep reports the
+         * number of removed entities to {@code onComplete}, possibly later and from another thread.
+         */
+        void sweep(String worldName, CleanupTrigger trigger, boolean announce, IntConsumer onComplete);
+
+        MessageTemplate getMessageTemplate(String key);
+
+        Collection<CleanupCoordinator> getWorldCoordinators();
+
+        Logger getLogger();
+    }
+
+    private final Host host;
+    private final String worldName; // The only world cleaned, or null for the shared worlds
+    private final LongSupplier intervalTicks; // Current scheduled interval, read on every tick
+    private final long cooldownTicks;
+
+    // Guarded by this
+    private State state = State.IDLE;
+    private CleanupTrigger trigger; // Trigger of the pending sweep, or of the next one held back by a running sweep or the cooldown
+    private boolean announce; // Whether an automatic request went into the pending or held-back sweep
+    private List<CommandSender> waiting = new ArrayList<>(); // Senders of the pending or held-back sweep
+    private CleanupTrigger runningTrigger; // Trigger of the running sweep
+    private List<CommandSender> runningWaiting = new ArrayList<>(); // Senders to notify when the running sweep finishes
+    private long ticksUntilScheduled;
+    private boolean initialDelay = true; // Counting down the delay before the first cleanup, not an interval
+    private long cooldownEndMillis;
+    private long coalesced; // Requests merged into another sweep since startup
+
+    /**
+     * @param plugin        The plugin.
+     * @param worldName     The world cleaned by this coordinator, or null for the shared worlds.
+     * @param delayTicks    Ticks before the first scheduled cleanup.
+     * @param intervalTicks The current interval between scheduled cleanups.
+     * @param cooldownTicks Minimum gap between the end of one sweep and the start of the next.
+     */
+    public CleanupCoordinator(EntityCleanupPlugin plugin, String worldName, long delayTicks, LongSupplier intervalTicks, long cooldownTicks) {
+        this(new PluginHost(plugin), worldName, delayTicks, intervalTicks, cooldownTicks);
+    }
+
+    CleanupCoordinator(Host host, String worldName, long delayTicks, LongSupplier intervalTicks, long cooldownTicks) {
+        this.host = host;
+        this.worldName = worldName;
+        this.intervalTicks = intervalTicks;
+        this.cooldownTicks = cooldownTicks;
+        this.ticksUntilScheduled = delayTicks;
+    }
+
+    /**
+     * Advances the scheduled countdown and requests a scheduled cleanup once it runs out.
+     * A shrinking interval takes effect straight away, since the countdown is capped by the current interval.
+     *
+     * @param elapsedTicks Ticks since the previous call.
+     */
+    public void tick(long elapsedTicks) {
+        synchronized (this) {
+            if (state != State.IDLE) {
+                return; // The countdown restarts when the current sweep finishes
+            }
+            if (!initialDelay) {
+                ticksUntilScheduled = Math.min(ticksUntilScheduled, intervalTicks.getAsLong());
+            }
+            ticksUntilScheduled -= elapsedTicks;
+            if (ticksUntilScheduled > 0) {
+                return;
+            }
+        }
+        request(CleanupTrigger.SCHEDULED, null);
+    }
+
+    /**
+     * Requests a cleanup.
+     *
+     * @param trigger Why the cleanup is requested.
+     * @param sender  Receives the number of removed entities once the sweep finishes, or null.
+     */
+    public void request(CleanupTrigger trigger, CommandSender sender) {
+        long cooldownSeconds = -1;
+        synchronized (this) {
+            switch (state) {
+                case IDLE:
+                    state = State.PENDING;
+                    hold(trigger, sender);
+                    host.runGlobal(this::start);
+                    return;
+                case PENDING:
+                    hold(trigger, sender);
+                    coalesced++;
+                    return;
+                case RUNNING:
+                    if (trigger == CleanupTrigger.MANUAL && runningTrigger != CleanupTrigger.MANUAL) {
+                        // The running sweep may not cover every world; run a full one right after it
+                        if (this.trigger != null) {
+                            coalesced++;
+                        }
+                        hold(trigger, sender);
+                        return;
+                    }
+                    // The sweep in progress already covers it; a sender just gets its result
+                    if (sender != null) {
+                        runningWaiting.add(sender);
+                    }
+                    coalesced++;
+                    return;
+                case COOLDOWN:
+                default:
+                    if (this.trigger != null) {
+                        coalesced++;
+                    }
+                    hold(trigger, sender);
+                    if (sender != null) {
+                        cooldownSeconds = Math.max(1L, (cooldownEndMillis - System.currentTimeMillis() + 999L) / 1000L);
+                    }
+                    break;
+            }
+        }
+        if (cooldownSeconds < 0) {
+            return;
+        }
+        // Outside the lock: sending a message may take a while
+        sender.sendMessage(host.getMessageTemplate("messages.command-queued").render(cooldownSeconds));
+    }
+
+    /**
+     * Starts the pending sweep. Runs on the main thread (Paper) or the global region thread (Folia).
+     */
+    private void start() {
+        CleanupTrigger runTrigger;
+        boolean runAnnounce;
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return;
+            }
+            state = State.RUNNING;
+            runTrigger = trigger;
+            runAnnounce = announce;
+            runningTrigger = trigger;
+            runningWaiting = waiting;
+            trigger = null;
+            announce = false;
+            waiting = new ArrayList<>();
+        }
+
+        // A failed sweep may or may not have reported back already; either way the cycle must move on exactly once
+        AtomicBoolean finished = new AtomicBoolean();
+        IntConsumer onComplete = removedCount -> {
+            if (finished.compareAndSet(false, true)) {
+                finish(removedCount);
+            }
+        };
+        try {
+            host.sweep(worldName, runTrigger, runAnnounce, onComplete);
+        } catch (RuntimeException e) {
+            host.getLogger().log(Level.SEVERE, "实体清理出错" + (worldName != null ? " (世界 " + worldName + ")" : "") + ": " + e.getMessage(), e);
+            onComplete.accept(0);
+        }
+    }
+
+    /**
+     * Reports the result to the attached senders and starts the cooldown. A request held back while the
+     * sweep ran starts when the cooldown ends, or straight away without one.
+     *
+     * @param removedCount The number of entities the sweep removed.
+     */
+    private void finish(int removedCount) {
+        List<CommandSender> notify;
+        boolean manual;
+        synchronized (this) {
+            notify = runningWaiting;
+            runningWaiting = new ArrayList<>();
+            manual = runningTrigger == CleanupTrigger.MANUAL;
+            runningTrigger = null;
+            restartCycle();
+        }
+
+        // A manual cleanup of the shared worlds covers every enabled world, including those with their own schedule
+        if (manual && worldName == null) {
+            for (CleanupCoordinator coordinator : host.getWorldCoordinators()) {
+                coordinator.coveredElsewhere();
+            }
+        }
+
+        if (!notify.isEmpty()) {
+            TextComponent message = new TextComponent(host.getMessageTemplate("messages.command-success").render(removedCount));
+            for (CommandSender sender : notify) {
+                // Use Spigot's sendMessage method which handles TextComponents
+                sender.spigot().sendMessage(message);
+            }
+        }
+    }
+
+    /**
+     * Restarts the countdown and the cooldown after another coordinator's sweep covered this world, as if
+     * this coordinator had swept it itself. A sweep that is pending is covered as well and dropped; one that
+     * is running, or held back by a running sweep or the cooldown, is left alone.
+     */
+    void coveredElsewhere() {
+        synchronized (this) {
+            if (state == State.RUNNING || state == State.COOLDOWN) {
+                return;
+            }
+            if (state == State.PENDING && !waiting.isEmpty()) {
+                return; // Someone is waiting for its result
+            }
+            // A pending sweep's start task sees the state change and does nothing
+            trigger = null;
+            announce = false;
+            restartCycle();
+        }
+    }
+
+    /**
+     * Restarts the countdown after a sweep, then enters the cooldown, or starts a held-back request when there is none.
+     * Must hold the lock.
+     */
+    private void restartCycle() {
+        ticksUntilScheduled = intervalTicks.getAsLong();
+        initialDelay = false;
+        if (cooldownTicks > 0) {
+            state = State.COOLDOWN;
+            cooldownEndMillis = System.currentTimeMillis() + cooldownTicks * 50L;
+            host.runGlobalLater(this::endCooldown, cooldownTicks);
+        } else if (trigger != null) {
+            state = State.PENDING;
+            host.runGlobal(this::start);
+        } else {
+            state = State.IDLE;
+        }
+    }
+
+    private void endCooldown() {
+        synchronized (this) {
+            if (state != State.COOLDOWN) {
+                return;
+            }
+            if (trigger == null) {
+                state = State.IDLE;
+                return;
+            }
+            // Requests came in during the cooldown: run them as one sweep now
+            state = State.PENDING;
+        }
+        start();
+    }
+
+    /**
+     * Adds a request to the pending or held-back sweep. Must hold the lock.
+     */
+    private void hold(CleanupTrigger requested, CommandSender sender) {
+        trigger = merge(trigger, requested);
+        if (requested != CleanupTrigger.MANUAL) {
+            announce = true;
+        }
+        if (sender != null) {
+            waiting.add(sender);
+        }
+    }
+
+    /**
+     * Picks the trigger of a merged sweep, the later one in {@link CleanupTrigger}'s order. A manual request
+     * widens the sweep to every enabled world, so it wins over the automatic ones; a threshold beats the timer.
+     */
+    private static CleanupTrigger merge(CleanupTrigger current, CleanupTrigger requested) {
+        if (current == null) {
+            return requested;
+        }
+        return requested.ordinal() > current.ordinal() ? requested : current;
+    }
+
+    /**
+     * Gets where the coordinator is in the cleanup cycle.
+     *
+     * @return The state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the number of requests that were merged into another sweep instead of starting their own.
+     *
+     * @return The count since startup.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * Runs the cycle on the plugin's scheduler and sweeps with a {@link CleanupTask}.
+     */
+    private static final class PluginHost implements Host {
+
+        private final EntityCleanupPlugin plugin;
+
+        PluginHost(EntityCleanupPlugin plugin) {
+            this.plugin = plugin;
+        }
+
+        @Override
+        public void runGlobal(Runnable task) {
+            plugin.getPluginScheduler().runGlobal(task);
+        }
+
+        @Override
+        public void runGlobalLater(Runnable task, long delayTicks) {
+            plugin.getPluginScheduler().runGlobalLater(task, delayTicks);
+        }
+
+        @Override
+        public void sweep(String worldName, CleanupTrigger trigger, boolean announce, IntConsumer onComplete) {
+            if (worldName == null) {
+                new CleanupTask(plugin, null, trigger, announce, onComplete).run();
+                return;
+            }
+            World world = Bukkit.getWorld(worldName);
+            if (world == null) { // Skip while the world is not loaded
+                onComplete.accept(0);
+                return;
+            }
+            new CleanupTask(plugin, world, trigger, announce, onComplete).run();
+        }
+
+        @Override
+        public MessageTemplate getMessageTemplate(String key) {
+            return plugin.getMessageTemplate(key);
+        }
+
+        @Override
+        public Collection<CleanupCoordinator> getWorldCoordinators() {
+            return plugin.getWorldCoordinators();
+        }
+
+        @Override
+        public Logger getLogger() {
+            return plugin.getLogger();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.World;
+import org.bukkit.entity.EntityType;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Performance metrics for cleanup and counting runs: wall time of the scan and removal phases,
+ * and entities examined and removed, per world and per type. Items and orbs merged into a neighbour
+ * are counted separately, since nothing was lost.
+ * Per-run values go into {@link RollingHistogram}s (p50/p95/max over the recent runs) and totals are
+ * kept since startup. Recording is thread-safe, so batches visited on Folia region threads can report
+ * directly.
+ */
+public class CleanupMetrics {
+
+    private static final int WINDOW = 128; // Runs kept in each histogram
+    private static final EntityType[] TYPES = EntityType.values();
+
+    private final RollingHistogram cleanupScanMicros = new RollingHistogram(WINDOW);
+    private final RollingHistogram cleanupRemoveMicros = new RollingHistogram(WINDOW);
+    private final RollingHistogram cleanupExamined = new RollingHistogram(WINDOW);
+    private final RollingHistogram cleanupRemoved = new RollingHistogram(WINDOW);
+    private final RollingHistogram countingScanMicros = new RollingHistogram(WINDOW);
+
+    private final AtomicLong cleanupRuns = new AtomicLong();
+    private final AtomicLong countingRuns = new AtomicLong();
+    private final AtomicLongArray examinedByType = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray removedByType = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray mergedByType = new AtomicLongArray(TYPES.length);
+    private final Map<String, WorldTotals> worlds = new ConcurrentHashMap<>();
+
+    /**
+     * Totals for a single world since startup.
+     */
+    public static final class WorldTotals {
+        private final LongAdder examined = new LongAdder();
+        private final LongAdder removed = new LongAdder();
+        private final LongAdder scanNanos = new LongAdder();
+        private final LongAdder removeNanos = new LongAdder();
+
+        public long examined() {
+            return examined.sum();
+        }
+
+        public long removed() {
+            return removed.sum();
+        }
+
+        public long scanMicros() {
+            return scanNanos.sum() / 1000L;
+        }
+
+        public long removeMicros() {
+            return removeNanos.sum() / 1000L;
+        }
+    }
+
+    /**
+     * Accumulates the numbers of one cleanup run across all of its batches.
+     */
+    public final class Run {
+        private final AtomicLong scanNanos = new AtomicLong();
+        private final AtomicLong removeNanos = new AtomicLong();
+        private final AtomicLong examined = new AtomicLong();
+        private final AtomicLong removed = new AtomicLong();
+
+        private Run() {
+        }
+
+        /**
+         * Records one batch of the run.
+         *
+         * @param world       The world the batch belongs to.
+         * @param examined    Entities examined.
+         * @param removed     Entities removed.
+         * @param scanNanos   Time spent deciding which entities to remove.
+         * @param removeNanos Time spent removing them.
+         */
+        public void batch(World world, int examined, int removed, long scanNanos, long removeNanos) {
+            this.examined.addAndGet(examined);
+            this.removed.addAndGet(removed);
+            this.scanNanos.addAndGet(scanNanos);
+            this.removeNanos.addAndGet(removeNanos);
+
+            WorldTotals totals = worlds.computeIfAbsent(world.getName(), name -> new WorldTotals());
+            totals.examined.add(examined);
+            totals.removed.add(removed);
+            totals.scanNanos.add(scanNanos);
+            totals.removeNanos.add(removeNanos);
+        }
+
+        /**
+         * Records the types of the entities examined in one batch.
+         *
+         * @param counts Entities examined per type, indexed by {@link EntityType#ordinal()}.
+         */
+        public void examinedTypes(int[] counts) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    examinedByType.addAndGet(i, counts[i]);
+                }
+            }
+        }
+
+        /**
+         * Records the type of a removed entity.
+         *
+         * @param type The entity type.
+         */
+        public void removedType(EntityType type) {
+            removedByType.incrementAndGet(type.ordinal());
+        }
+
+        /**
+         * Records the type of an entity that was merged into a neighbour. Not counted as removed.
+         *
+         * @param type The entity type.
+         */
+        public void mergedType(EntityType type) {
+            mergedByType.incrementAndGet(type.ordinal());
+        }
+
+        /**
+         * Finishes the run and adds its totals to the histograms.
+         */
+        public void finish() {
+            cleanupRuns.incrementAndGet();
+            cleanupScanMicros.record(scanNanos.get() / 1000L);
+            cleanupRemoveMicros.record(removeNanos.get() / 1000L);
+            cleanupExamined.record(examined.get());
+            cleanupRemoved.record(removed.get());
+        }
+    }
+
+    /**
+     * Starts recording a cleanup run.
+     *
+     * @return The run accumulator.
+     */
+    public Run startRun() {
+        return new Run();
+    }
+
+    /**
+     * Records the wall time of one counting pass.
+     *
+     * @param scanNanos Time spent scanning.
+     */
+    public void recordCounting(long scanNanos) {
+        countingRuns.incrementAndGet();
+        countingScanMicros.record(scanNanos / 1000L);
+    }
+
+    public RollingHistogram.Snapshot cleanupScanMicros() {
+        return cleanupScanMicros.snapshot();
+    }
+
+    public RollingHistogram.Snapshot cleanupRemoveMicros() {
+        return cleanupRemoveMicros.snapshot();
+    }
+
+    public RollingHistogram.Snapshot cleanupExamined() {
+        return cleanupExamined.snapshot();
+    }
+
+    public RollingHistogram.Snapshot cleanupRemoved() {
+        return cleanupRemoved.snapshot();
+    }
+
+    public RollingHistogram.Snapshot countingScanMicros() {
+        return countingScanMicros.snapshot();
+    }
+
+    public long cleanupRuns() {
+        return cleanupRuns.get();
+    }
+
+    public long countingRuns() {
+        return countingRuns.get();
+    }
+
+    /**
+     * Gets the totals per world since startup, sorted by world name.
+     *
+     * @return A copy of the per-world totals.
+     */
+    public Map<String, WorldTotals> worldTotals() {
+        return new TreeMap<>(worlds);
+    }
+
+    /**
+     * Gets the number of entities examined by cleanup per type since startup, for types seen at least once.
+     * Next to {@link #removedByType()} this shows which types the scan spends its time on.
+     *
+     * @return A copy of the per-type totals, sorted by type name.
+     */
+    public Map<String, Long> examinedByType() {
+        return byType(examinedByType);
+    }
+
+    /**
+     * Gets the number of removed entities per type since startup, for types with at least one removal.
+     *
+     * @return A copy of the per-type totals, sorted by type name.
+     */
+    public Map<String, Long> removedByType() {
+        return byType(removedByType);
+    }
+
+    /**
+     * Gets the number of items and orbs merged into a neighbour per type since startup.
+     *
+     * @return A copy of the per-type totals, sorted by type name.
+     */
+    public Map<String, Long> mergedByType() {
+        return byType(mergedByType);
+    }
+
+    private static Map<String, Long> byType(AtomicLongArray counters) {
+        Map<String, Long> result = new TreeMap<>();
+        for (int i = 0; i < TYPES.length; i++) {
+            long value = counters.get(i);
+            if (value > 0) {
+                result.put(TYPES[i].name(), value);
+            }
+        }
+        return result;
+    }
+}
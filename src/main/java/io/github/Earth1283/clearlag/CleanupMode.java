@@ -0,0 +1,33 @@
+package io.github.Earth1283.clearlag;
+
+/**
+ * How a cleanup walks the worlds when it removes entities.
+ */
+public enum CleanupMode {
+    /** Remove everything in a single main-thread pass (the original behaviour). */
+    INSTANT,
+    /** Walk the worlds chunk by chunk within a per-tick time budget, resuming on the next tick. */
+    SLICED,
+    /** Only thin out chunks holding more matching entities than the per-chunk cap, hottest first. */
+    DENSITY,
+    /** Only remove enough matching entities to get back down to the low-water mark, picked by a victim policy. */
+    PARTIAL;
+
+    /**
+     * Parses a config value, case-insensitively.
+     *
+     * @param value The value from config.yml.
+     * @return The matching mode, or null if the value is not recognised.
+     */
+    public static CleanupMode parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (CleanupMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value.trim())) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
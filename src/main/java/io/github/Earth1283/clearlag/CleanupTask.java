@@ -1,89 +1,231 @@
 package io.github.Earth1283.clearlag; // Corrected package name
 
-import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
-import org.bukkit.command.CommandSender; // Import for command sender
-
-// Import necessary BungeeCord components for sending messages
-import net.md_5.bungee.api.chat.TextComponent;
-
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger
+import java.util.function.IntConsumer;
 
+/**
+ * One cleanup sweep. Started by {@link CleanupCoordinator}, which decides when sweeps run and reports the
+ * result to command senders.
+ */
 public class CleanupTask implements Runnable {
 
-    private final EntityCleanupPlugin plugin;
-    private final boolean isManualCommand; // Flag to indicate if triggered by command
-    private CommandSender commandSender; // Store command sender if manual
+    private static final int TYPE_COUNT = EntityType.values().length;
 
-    // Constructor for scheduled task
-    public CleanupTask(EntityCleanupPlugin plugin, boolean isManualCommand) {
-        this.plugin = plugin;
-        this.isManualCommand = isManualCommand;
-    }
+    private final EntityCleanupPlugin plugin;
+    private final World targetWorld; // The only world to clean, or null for the global cleanup
+    private final CleanupTrigger trigger; // Why this cleanup runs
+    private final boolean announce; // Whether players are told before and after the cleanup
+    private final IntConsumer onComplete; // Receives the number of removed entities
+    private CleanupMetrics.Run metricsRun; // Metrics of the run in progress
+    private List<World> worlds; // The worlds this run covers
+    private AuditLog.Recorder auditRecorder; // Records each removal, null when the audit log is disabled
 
-    // Constructor for manual command (includes sender)
-    public CleanupTask(EntityCleanupPlugin plugin, boolean isManualCommand, CommandSender sender) {
+    /**
+     * @param plugin      The plugin.
+     * @param targetWorld The only world to clean, or null for the shared worlds (every enabled world when manual).
+     * @param trigger     Why the cleanup runs; a manual cleanup covers every enabled world.
+     * @param announce    Whether to broadcast to players before and after, as automatic cleanups do.
+     * @param onComplete  Receives the number of removed entities once the sweep has finished.
+     */
+    public CleanupTask(EntityCleanupPlugin plugin, World targetWorld, CleanupTrigger trigger, boolean announce, IntConsumer onComplete) {
         this.plugin = plugin;
-        this.isManualCommand = isManualCommand;
-        this.commandSender = sender;
+        this.targetWorld = targetWorld;
+        this.trigger = trigger;
+        this.announce = announce;
+        this.onComplete = onComplete;
     }
 
-
     @Override
     public void run() {
-        // This code now runs directly on the main server thread, as scheduled by the plugin.
-        // All Bukkit API calls that interact with the world are safe here.
+        // This code runs on the main server thread (Paper) or the global region thread (Folia),
+        // as scheduled by the plugin. Entity access goes through the plugin scheduler, which runs it
+        // on the thread that owns the entities.
 
-        // Send a message to all online players with permission before cleanup (only for scheduled task)
-        // This message sending happens on the main thread.
-        if (!isManualCommand) {
+        // Send a message to all online players with permission before cleanup (only for automatic cleanups)
+        boolean isManualCommand = trigger == CleanupTrigger.MANUAL;
+        if (announce) {
             String preCleanupMessage = plugin.getMessage("messages.pre-cleanup");
             plugin.sendMessageToPermittedPlayers(preCleanupMessage);
         }
 
-        // Use AtomicInteger for thread-safe counting
-        AtomicInteger removedCount = new AtomicInteger(0);
-        List<EntityType> entitiesToClear = plugin.getEntitiesToClear(); // Get the list from the plugin
-
-        // Iterate through all worlds (on the main thread - SAFE NOW)
-        for (World world : Bukkit.getWorlds()) {
-            // Get all entities in the world (on the main thread - SAFE NOW)
-            // Create a copy of the list to avoid ConcurrentModificationException if entities are removed
-            // while iterating.
-            List<Entity> entities = new java.util.ArrayList<>(world.getEntities());
-
-            // Iterate through entities and remove eligible ones (on the main thread)
-            for (Entity entity : entities) {
-                // --- Cleanup Logic ---
-                // Check if the entity's type is in the configured list of entities to clear
-                if (entitiesToClear.contains(entity.getType())) {
-                    // If the entity is in the list, remove it directly on the main thread (SAFE NOW)
-                    entity.remove();
-                    // Increment the atomic counter
-                    removedCount.incrementAndGet();
+        PluginScheduler scheduler = plugin.getPluginScheduler();
+        metricsRun = plugin.getMetrics().startRun();
+        AuditLog auditLog = plugin.getAuditLog();
+        auditRecorder = auditLog != null ? auditLog.recorder(trigger) : null;
+
+        // A world with its own schedule is cleaned on its own; the global cleanup skips it.
+        // A manual cleanup covers every enabled world.
+        worlds = targetWorld != null ? List.of(targetWorld)
+                : isManualCommand ? plugin.getEnabledWorlds() : plugin.getSharedWorlds();
+
+        // In partial mode, only remove enough entities to get back down to the low-water mark
+        if (plugin.getCleanupMode() == CleanupMode.PARTIAL) {
+            int target = (int) (threshold(worlds) * plugin.getPartialLowWaterRatio());
+            new PartialCleanup(plugin, worlds, target, plugin.getPartialVictimPolicy(), plugin.getSpawnHotspotTracker(),
+                    metricsRun, auditRecorder, this::finish).start();
+            return;
+        }
+
+        // In sliced mode, walk the worlds chunk by chunk over several ticks and report once the sweep is done.
+        // On Folia each region already ticks on its own thread, so the regular per-region sweep is used instead.
+        if (plugin.getCleanupMode() == CleanupMode.SLICED && !scheduler.isFolia()) {
+            new SlicedCleanupTask(plugin, worlds, metricsRun, auditRecorder, this::finish).start();
+            return;
+        }
+
+        // In density mode, only thin out the chunks over the per-chunk cap
+        if (plugin.getCleanupMode() == CleanupMode.DENSITY && plugin.getChunkDensityIndex() != null) {
+            removeFromDenseChunks(worlds);
+            return;
+        }
+
+        // Iterate through all worlds' entities on the owning thread(s) and remove eligible ones
+        ItemConsolidator consolidator = plugin.getItemConsolidator();
+        scheduler.visitEntities(worlds, (world, entities) -> sweep(plugin.getRules(world), consolidator, metricsRun, auditRecorder, world, entities, 0), this::finish);
+    }
+
+    /**
+     * Gets the threshold that applies to the given worlds together: the world's own threshold for a
+     * single-world cleanup, otherwise the global threshold plus that of each world with its own schedule.
+     *
+     * @param worlds The worlds being cleaned.
+     * @return The combined threshold.
+     */
+    private int threshold(List<World> worlds) {
+        int threshold = targetWorld != null ? 0 : plugin.getMaxEntitiesBeforeCleanup();
+        for (World world : worlds) {
+            WorldSettings settings = plugin.getOwnSchedule(world);
+            if (settings != null) {
+                threshold += plugin.getWorldMaxEntities(settings);
+            }
+        }
+        return threshold;
+    }
+
+    /**
+     * Visits the chunks over the per-chunk cap, hottest first, and removes matching entities
+     * until each of them is back down to the cap. Chunks under the cap are never iterated.
+     * Reports the number of removed entities through {@link #finish(int)}.
+     *
+     * @param targetWorlds The worlds to clean.
+     */
+    private void removeFromDenseChunks(List<World> targetWorlds) {
+        int cap = plugin.getDensityChunkCap();
+        ChunkDensityIndex.HotChunks hotChunks = plugin.getChunkDensityIndex().getHotChunks(targetWorlds, cap, plugin.getDensityMaxChunks(),
+                plugin.isHotspotsFeedCleanup() ? plugin.getSpawnHotspotTracker() : null);
+
+        World[] worlds = new World[hotChunks.size()];
+        int[] chunkXs = new int[hotChunks.size()];
+        int[] chunkZs = new int[hotChunks.size()];
+        for (int i = 0; i < hotChunks.size(); i++) {
+            worlds[i] = hotChunks.world(i);
+            chunkXs[i] = hotChunks.chunkX(i);
+            chunkZs[i] = hotChunks.chunkZ(i);
+        }
+
+        plugin.getPluginScheduler().visitChunks(worlds, chunkXs, chunkZs,
+                (world, entities) -> sweep(plugin.getRules(world), null, metricsRun, auditRecorder, world, entities, cap), this::finish);
+    }
+
+    /**
+     * Cleans one batch of entities on the thread that owns them, in two timed phases:
+     * first decide which entities to remove, then remove them.
+     *
+     * @param rules        The compiled rules for the batch's world.
+     * @param consolidator Merges the matching items and XP orbs instead of removing them outright, or null to
+     *                     treat them like any other entity.
+     * @param run          Metrics of the cleanup run this batch belongs to, or null when the caller keeps its own totals.
+     * @param recorder     Records each removal in the audit log, or null.
+     * @param world        The world of the batch.
+     * @param entities     The entities of the batch; must be a copy that removal doesn't modify.
+     * @param keep         How many matching entities to leave in place (0 removes all of them).
+     * @return The number of entities removed. Items and orbs merged into a neighbour are not included.
+     */
+    static int sweep(EntityRules rules, ItemConsolidator consolidator, CleanupMetrics.Run run, AuditLog.Recorder recorder,
+                     World world, List<Entity> entities, int keep) {
+
+        // --- Scan phase ---
+        long scanStart = System.nanoTime();
+        List<Entity> victims = new ArrayList<>();
+        List<Entity> consolidate = consolidator != null ? new ArrayList<>() : null;
+        int[] examinedByType = new int[TYPE_COUNT]; // Added to the run once per batch, not per entity
+        int kept = 0;
+        for (Entity entity : entities) {
+            examinedByType[entity.getType().ordinal()]++;
+            // Check if the entity matches the configured cleanup rules
+            if (rules.matches(entity)) {
+                if (consolidate != null && ItemConsolidator.handles(entity)) {
+                    // Merged below instead of removed outright
+                    consolidate.add(entity);
+                } else if (kept < keep) {
+                    kept++;
+                } else {
+                    victims.add(entity);
                 }
             }
         }
 
-        // Send a message after cleanup (on the main thread)
-        String postCleanupMessage;
-        if (isManualCommand) {
-            // Message for the command sender
-            postCleanupMessage = plugin.getMessage("messages.command-success").replace("%count%", String.valueOf(removedCount.get()));
-            if (commandSender != null) {
-                // Use Spigot's sendMessage method which handles TextComponents
-                commandSender.spigot().sendMessage(new TextComponent(postCleanupMessage));
+        // --- Removal phase ---
+        long removeStart = System.nanoTime();
+        int removedCount = 0;
+        // Merge dropped items and XP orbs first; only what is left over the cap is removed
+        if (consolidate != null && !consolidate.isEmpty()) {
+            removedCount += consolidator.consolidate(consolidate, run, recorder);
+        }
+        for (Entity entity : victims) {
+            if (recorder != null) {
+                recorder.record(entity);
+            }
+            // Remove it directly on the owning thread
+            entity.remove();
+            if (run != null) {
+                run.removedType(entity.getType());
+            }
+            removedCount++;
+        }
+        long removeEnd = System.nanoTime();
+
+        if (run != null) {
+            run.examinedTypes(examinedByType);
+            run.batch(world, entities.size(), removedCount, removeStart - scanStart, removeEnd - removeStart);
+        }
+        return removedCount;
+    }
+
+    /**
+     * Sends the post-cleanup messages once the sweep has finished.
+     *
+     * @param removedCount The total number of entities removed by the sweep.
+     */
+    private void finish(int removedCount) {
+        try {
+            metricsRun.finish();
+
+            // The loaded chunks have just been swept; the others are swept lazily when they next load
+            LazyChunkSweeper lazySweeper = plugin.getLazyChunkSweeper();
+            if (lazySweeper != null) {
+                lazySweeper.advance(worlds);
+            }
+
+            // Send a message after cleanup (on the main thread or global region thread)
+            if (!announce) {
+                // The coordinator reports the result to the command senders
+                plugin.getLogger().info("手动实体清理完成。已移除 " + removedCount + " 个实体。"); // Log cleanup
+            } else {
+                // Message for permitted players (automatic cleanup)
+                String postCleanupMessage = plugin.getMessageTemplate("messages.post-cleanup").render(removedCount);
+                plugin.sendMessageToPermittedPlayers(postCleanupMessage);
+                plugin.getLogger().info((targetWorld != null ? "世界 " + targetWorld.getName() + " 的" : "")
+                        + "实体清理完成。已移除 " + removedCount + " 个实体。"); // Log cleanup
             }
-            plugin.getLogger().info("手动实体清理完成。已移除 " + removedCount.get() + " 个实体。"); // Log cleanup
-        } else {
-            // Message for permitted players (scheduled task)
-            postCleanupMessage = plugin.getMessage("messages.post-cleanup").replace("%count%", String.valueOf(removedCount.get()));
-            plugin.sendMessageToPermittedPlayers(postCleanupMessage);
-            plugin.getLogger().info("实体清理完成。已移除 " + removedCount.get() + " 个实体。"); // Log cleanup
+        } finally {
+            // The coordinator must hear back even if the bookkeeping above failed
+            onComplete.accept(removedCount);
         }
     }
 }
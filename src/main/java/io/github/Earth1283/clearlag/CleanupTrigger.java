@@ -0,0 +1,16 @@
+package io.github.Earth1283.clearlag;
+
+/**
+ * Why a cleanup ran, recorded with every removal in the audit log.
+ * Declared in increasing priority: when requests are merged into one sweep, the sweep takes the last one.
+ */
+public enum CleanupTrigger {
+    /** The entities of a chunk were loaded since the last cleanup of its world. */
+    CHUNK_LOAD,
+    /** The cleanup timer fired. */
+    SCHEDULED,
+    /** The entity count went over the threshold. */
+    THRESHOLD,
+    /** A player or the console ran /clearlag. */
+    MANUAL
+}
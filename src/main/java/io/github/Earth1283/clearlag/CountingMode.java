@@ -0,0 +1,31 @@
+package io.github.Earth1283.clearlag;
+
+/**
+ * How the plugin keeps track of the number of entities that count towards the cleanup threshold.
+ */
+public enum CountingMode {
+    /** Rescan every world each counting interval (the original behaviour). */
+    SCAN,
+    /** Keep live counters updated from entity add/remove events, with a periodic reconciliation scan. */
+    TRACKED,
+    /** Scan a slice (one world or a fixed number of chunks) per tick, keeping a rolling total. */
+    STAGGERED;
+
+    /**
+     * Parses a config value, case-insensitively.
+     *
+     * @param value The value from config.yml.
+     * @return The matching mode, or null if the value is not recognised.
+     */
+    public static CountingMode parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (CountingMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value.trim())) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
@@ -1,11 +1,11 @@
 package io.github.Earth1283.clearlag; // Corrected package name
 
 import org.bukkit.Bukkit;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.entity.EntityType;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitTask;
 
 // Import necessary BungeeCord components for clickable text
 import net.md_5.bungee.api.chat.ClickEvent;
@@ -13,25 +13,87 @@ import net.md_5.bungee.api.chat.TextComponent;
 import net.md_5.bungee.api.ChatColor; // Use BungeeCord ChatColor for consistent color codes
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public final class EntityCleanupPlugin extends JavaPlugin {
 
-    private BukkitTask scheduledCleanupTimerTask; // This task will schedule the synchronous cleanup
-    private BukkitTask countingTask; // New task for counting entities
+    private PluginScheduler pluginScheduler; // Runs work on the main thread (Paper) or the owning region (Folia)
+    private PluginScheduler.Task cleanupClockTask; // Advances the scheduled cleanup countdowns once a second
+    private PluginScheduler.Task adaptiveSampleTask; // Samples MSPT for the adaptive scheduler
+    private CleanupCoordinator cleanupCoordinator; // Starts every cleanup of the shared worlds
+    private final Map<String, CleanupCoordinator> worldCoordinators = new ConcurrentHashMap<>(); // Worlds with their own schedule
+    private PluginScheduler.Task countingTask; // New task for counting entities
 
     private long cleanupIntervalTicks;
     private long cleanupDelayTicks;
+    private long cleanupCooldownTicks; // Minimum gap between the end of one sweep and the start of the next
     private long countingIntervalTicks; // New interval for counting
     private int maxEntitiesBeforeCleanup; // New threshold
+    private CountingMode countingMode; // How entities are counted towards the threshold
+    private long trackingReconcileIntervalTicks; // How often the tracked counters are corrected by a full scan
+    private int countingSliceChunks; // Chunks counted per tick in staggered mode, 0 for one world per tick
+    private CleanupMode cleanupMode; // Whether cleanup runs in one pass or is sliced across ticks
+    private long cleanupTickBudgetMicros; // Time a sliced cleanup may spend per tick
+    private int cleanupMaxTicks; // Upper bound on how many ticks a sliced cleanup may take
+    private int densityChunkCap; // Matching entities a chunk may hold before density cleanup thins it out
+    private int densityMaxChunks; // Maximum number of chunks a density cleanup visits
+    private double partialLowWaterRatio; // Share of the threshold a partial cleanup leaves in place
+    private PartialCleanup.Policy partialVictimPolicy; // Which entities a partial cleanup removes first
+    private ItemConsolidator itemConsolidator; // Merges items and XP orbs before cleanup, null when disabled
+    private AdaptiveCleanupScheduler adaptiveScheduler; // Scales interval and threshold with MSPT, null when disabled
 
-    private List<EntityType> entitiesToClear; // List of entity types to clear
+    private final CleanupMetrics metrics = new CleanupMetrics(); // Per-run timings and counts for /clearlag stats
+    private PluginScheduler.Task metricsExportTask; // Writes the metrics to a Prometheus text file
+    private boolean metricsExportEnabled;
+    private String metricsExportFile;
+    private long metricsExportIntervalTicks;
+
+    private AuditLog auditLog; // Records every removed entity to rotating gzip files, null when disabled
+    private boolean auditLogEnabled;
+    private String auditLogDirectory;
+    private int auditLogBufferSize;
+    private long auditLogMaxFileBytes;
+    private int auditLogMaxFiles;
+
+    private MessageCatalog messageCatalog; // Compiled messages.yml, swapped atomically on reload
+    private MessageBroadcaster broadcaster; // Sends messages to the players holding the message permission
+    private PluginScheduler.Task subscriberRefreshTask; // Picks up permission changes for the broadcaster
+    private long permissionRefreshTicks; // How often the broadcaster's subscribers are rebuilt
+    private long warningCoalesceMillis; // Window in which repeated threshold warnings collapse into one
+    private boolean messagesHotReload; // Whether messages.yml is reloaded automatically when it changes
+
+    private EntityTracker entityTracker; // Live entity counters, only present in tracked counting mode
+    private ChunkDensityIndex chunkDensityIndex; // Per-chunk counters, only present in density cleanup mode
+    private PluginScheduler.Task densityRebuildTask; // Periodically rebuilds the density index
+    private PluginScheduler.Task trackerReconcileTask; // Reconciles the tracker when it only feeds the spawn limits
+
+    private boolean spawnLimitsEnabled; // Whether spawns over the configured caps are cancelled
+    private SpawnLimiter spawnLimiter; // Spawn admission control, null when disabled
+
+    private boolean hotspotsEnabled; // Whether spawn rates are tracked per chunk
+    private int hotspotsCapacity; // Number of chunks the hotspot tracker keeps counters for
+    private long hotspotsHalfLifeSeconds; // Time for a chunk's spawn rate to halve once spawning stops
+    private boolean hotspotsFeedCleanup; // Whether density cleanup visits the chunks with the highest spawn rate first
+    private SpawnHotspotTracker spawnHotspotTracker; // Decaying per-chunk spawn rates, null when disabled
+
+    private boolean lazySweepEnabled; // Whether chunks are swept as their entities load
+    private LazyChunkSweeper lazyChunkSweeper; // Sweeps each chunk once per cleanup generation, null when disabled
+    private PlayerPositions playerPositions; // Publishes player positions from their own regions, Folia only
+
+    private EntityRules defaultRules; // Compiled cleanup rules for worlds without an override
+    private Map<String, EntityRules> worldRules; // Per-world rule overrides, keyed by world name
+    private Map<String, WorldSettings> worldSettings; // Per-world enabled flag, interval and threshold, keyed by world name
 
     private static final String MESSAGE_PERMISSION = "clearlag.message";
     private static final String COMMAND_PERMISSION = "clearlag.command";
     private static final String QQ_COMMAND_PERMISSION = "clearlag.qq"; // New permission for /qq command
+    private static final long CLEANUP_CLOCK_TICKS = 20L; // Resolution of the scheduled cleanup countdowns
 
     @Override
     public void onEnable() {
@@ -39,17 +101,103 @@ public final class EntityCleanupPlugin extends JavaPlugin {
         saveDefaultConfig(); // Creates config.yml if it doesn't exist
         saveResource("messages.yml", false); // Creates messages.yml if it doesn't exist
 
+        // Detect region threading (Folia) before anything is scheduled
+        pluginScheduler = new PluginScheduler(this);
+        if (pluginScheduler.isFolia()) {
+            getLogger().info("检测到 Folia 区域多线程，计数和清理将在各区域线程上分别执行。");
+            // The global region may not read chunk lists or player positions, so both are kept from events
+            LoadedChunkIndex loadedChunkIndex = pluginScheduler.getLoadedChunkIndex();
+            loadedChunkIndex.seed(Bukkit.getWorlds());
+            getServer().getPluginManager().registerEvents(loadedChunkIndex, this);
+            playerPositions = new PlayerPositions(this);
+            getServer().getPluginManager().registerEvents(playerPositions, this);
+        }
+
         // Load configuration values
         loadConfig();
 
-        // Schedule the asynchronous cleanup timer task
-        scheduleScheduledCleanupTimerTask(); // This schedules the task that *will* schedule the cleanup
+        // Keep the set of players who receive cleanup messages up to date
+        broadcaster = new MessageBroadcaster(this, MESSAGE_PERMISSION, warningCoalesceMillis);
+        getServer().getPluginManager().registerEvents(broadcaster, this);
+        subscriberRefreshTask = pluginScheduler.runGlobalTimer(broadcaster::refresh, 1L, permissionRefreshTicks);
+
+        // In density mode, keep per-chunk counters so cleanup can go straight to the hot chunks.
+        // The spawn limits use the same counters for their per-chunk caps.
+        if (cleanupMode == CleanupMode.DENSITY || spawnLimitsEnabled) {
+            chunkDensityIndex = new ChunkDensityIndex(this);
+            getServer().getPluginManager().registerEvents(chunkDensityIndex, this);
+            // Entities moving between chunks don't fire events, so rebuild the index periodically
+            densityRebuildTask = pluginScheduler.runGlobalTimer(chunkDensityIndex::rebuild, 1L, trackingReconcileIntervalTicks);
+        }
+
+        // Periodically write the metrics to a Prometheus text file, off the main thread
+        if (metricsExportEnabled) {
+            java.io.File exportFile = new java.io.File(metricsExportFile);
+            if (!exportFile.isAbsolute()) {
+                exportFile = new java.io.File(getDataFolder(), metricsExportFile);
+            }
+            metricsExportTask = pluginScheduler.runAsyncTimer(new PrometheusExporter(this, metrics, exportFile), metricsExportIntervalTicks, metricsExportIntervalTicks);
+            getLogger().info("性能指标将每 " + (metricsExportIntervalTicks / 20) + " 秒写入 " + exportFile.getPath());
+        }
+
+        // Record every removed entity; the files are written by a background thread
+        if (auditLogEnabled) {
+            java.io.File auditDirectory = new java.io.File(auditLogDirectory);
+            if (!auditDirectory.isAbsolute()) {
+                auditDirectory = new java.io.File(getDataFolder(), auditLogDirectory);
+            }
+            auditLog = new AuditLog(auditDirectory, auditLogBufferSize, auditLogMaxFileBytes, auditLogMaxFiles, getLogger());
+            auditLog.start();
+            getLogger().info("审计日志已启用，被清理的实体将记录到 " + auditDirectory.getPath());
+        }
+
+        // Watch messages.yml for changes if enabled
+        if (messagesHotReload) {
+            messageCatalog.startWatching();
+        }
+
+        // Set up the cleanup coordinators and the timer that drives their countdowns
+        startCleanupScheduling();
+
+        // In tracked mode, register the listener that keeps the live entity counters.
+        // The spawn limits use the same counters for their per-world caps.
+        if (countingMode == CountingMode.TRACKED || spawnLimitsEnabled) {
+            entityTracker = new EntityTracker(this, countingMode == CountingMode.TRACKED);
+            entityTracker.refreshMatchingTypes();
+            getServer().getPluginManager().registerEvents(entityTracker, this);
+            if (countingMode != CountingMode.TRACKED) {
+                // Tracked mode reconciles from the counting timer; otherwise the counters need their own
+                trackerReconcileTask = pluginScheduler.runGlobalTimer(entityTracker::reconcile, 1L, trackingReconcileIntervalTicks);
+            }
+        }
+
+        // Cancel spawns of listed entities once their chunk or world is over the cap
+        if (spawnLimitsEnabled) {
+            spawnLimiter = SpawnLimiter.load(this, getConfig().getConfigurationSection("spawn-limits"), entityTracker, chunkDensityIndex, getLogger());
+            getServer().getPluginManager().registerEvents(spawnLimiter, this);
+            getLogger().info("生成限制已启用。超过上限的区块或世界将不再生成 entities-to-clear 中的实体。");
+        }
+
+        // Track spawn rates per chunk to find mob farms
+        if (hotspotsEnabled) {
+            spawnHotspotTracker = new SpawnHotspotTracker(this, hotspotsCapacity, hotspotsHalfLifeSeconds);
+            getServer().getPluginManager().registerEvents(spawnHotspotTracker, this);
+            getLogger().info("生成热点统计已启用。使用 /clearlag hotspots 查看生成最频繁的区块。");
+        }
+
+        // Sweep chunks that were unloaded during the last cleanup as soon as their entities load
+        if (lazySweepEnabled) {
+            lazyChunkSweeper = new LazyChunkSweeper(this);
+            getServer().getPluginManager().registerEvents(lazyChunkSweeper, this);
+            getLogger().info("延迟清理已启用。清理时未加载的区块将在实体加载时清理一次。");
+        }
 
         // Schedule the asynchronous counting task
         scheduleCountingTask(); // New task scheduling
 
         // Register command executors
         Objects.requireNonNull(getCommand("clearlag")).setExecutor(this);
+        Objects.requireNonNull(getCommand("clearlag")).setTabCompleter(this);
         Objects.requireNonNull(getCommand("qq")).setExecutor(this); // Register the /qq command
 
         getLogger().info("实体清理插件已启用!"); // Plugin enabled message
@@ -58,12 +206,40 @@ public final class EntityCleanupPlugin extends JavaPlugin {
     @Override
     public void onDisable() {
         // Cancel the scheduled tasks when the plugin is disabled
-        if (scheduledCleanupTimerTask != null && !scheduledCleanupTimerTask.isCancelled()) {
-            scheduledCleanupTimerTask.cancel();
+        if (cleanupClockTask != null && !cleanupClockTask.isCancelled()) {
+            cleanupClockTask.cancel();
+        }
+        if (adaptiveSampleTask != null && !adaptiveSampleTask.isCancelled()) {
+            adaptiveSampleTask.cancel();
         }
         if (countingTask != null && !countingTask.isCancelled()) {
             countingTask.cancel();
         }
+        if (densityRebuildTask != null && !densityRebuildTask.isCancelled()) {
+            densityRebuildTask.cancel();
+        }
+        if (trackerReconcileTask != null && !trackerReconcileTask.isCancelled()) {
+            trackerReconcileTask.cancel();
+        }
+        worldCoordinators.clear();
+        if (subscriberRefreshTask != null && !subscriberRefreshTask.isCancelled()) {
+            subscriberRefreshTask.cancel();
+        }
+        if (metricsExportTask != null && !metricsExportTask.isCancelled()) {
+            metricsExportTask.cancel();
+        }
+        if (messageCatalog != null) {
+            messageCatalog.stopWatching();
+        }
+        if (playerPositions != null) {
+            playerPositions.stop();
+            playerPositions = null;
+        }
+        if (auditLog != null) {
+            // Writes whatever is still buffered before the files are closed
+            auditLog.stop();
+            auditLog = null;
+        }
 
         getLogger().info("实体清理插件已禁用!"); // Plugin disabled message
     }
@@ -80,11 +256,56 @@ public final class EntityCleanupPlugin extends JavaPlugin {
         // Convert seconds to ticks (20 ticks per second)
         this.cleanupIntervalTicks = getConfig().getLong("cleanup-interval-seconds", 300) * 20L; // Default 5 minutes
         this.cleanupDelayTicks = getConfig().getLong("cleanup-delay-seconds", 60) * 20L; // Default 1 minute
+        this.cleanupCooldownTicks = getConfig().getLong("cleanup-cooldown-seconds", 10) * 20L; // Default 10 seconds
 
         // Get counting interval and threshold from config.yml
         this.countingIntervalTicks = getConfig().getLong("counting-interval-seconds", 15) * 20L; // Default 15 seconds
         this.maxEntitiesBeforeCleanup = getConfig().getInt("max-entities-before-cleanup", 150); // Default 150
 
+        // Get counting mode and the reconciliation interval used by tracked mode
+        String countingModeName = getConfig().getString("counting-mode", "scan");
+        this.countingMode = CountingMode.parse(countingModeName);
+        this.trackingReconcileIntervalTicks = getConfig().getLong("tracking-reconcile-interval-seconds", 300) * 20L; // Default 5 minutes
+        this.countingSliceChunks = getConfig().getInt("counting-slice-chunks", 0); // Default one world per tick
+
+        // Prometheus text-format export of the metrics
+        this.metricsExportEnabled = getConfig().getBoolean("metrics-export.enabled", false);
+        this.metricsExportFile = getConfig().getString("metrics-export.file", "clearlag.prom");
+        this.metricsExportIntervalTicks = getConfig().getLong("metrics-export.interval-seconds", 15) * 20L; // Default 15 seconds
+        this.auditLogEnabled = getConfig().getBoolean("audit-log.enabled", false);
+        this.auditLogDirectory = getConfig().getString("audit-log.directory", "audit");
+        this.auditLogBufferSize = getConfig().getInt("audit-log.buffer-size", 65536);
+        this.auditLogMaxFileBytes = getConfig().getLong("audit-log.max-file-size-mb", 16) * 1024L * 1024L;
+        this.auditLogMaxFiles = getConfig().getInt("audit-log.max-files", 30);
+
+        // Spawn admission control; the caps themselves are read when the limiter is created
+        this.spawnLimitsEnabled = getConfig().getBoolean("spawn-limits.enabled", false);
+
+        // Whether messages.yml is watched for changes
+        this.messagesHotReload = getConfig().getBoolean("messages-hot-reload", false);
+
+        // Broadcast settings
+        this.permissionRefreshTicks = getConfig().getLong("broadcast.permission-refresh-seconds", 60) * 20L; // Default 1 minute
+        this.warningCoalesceMillis = getConfig().getLong("broadcast.warning-coalesce-seconds", 30) * 1000L; // Default 30 seconds
+
+        // Get cleanup mode and the limits used by sliced cleanup
+        String cleanupModeName = getConfig().getString("cleanup-mode", "instant");
+        this.cleanupMode = CleanupMode.parse(cleanupModeName);
+        this.cleanupTickBudgetMicros = getConfig().getLong("cleanup-tick-budget-micros", 2000); // Default 2 ms per tick
+        this.cleanupMaxTicks = getConfig().getInt("cleanup-max-ticks", 100); // Default 5 seconds
+        this.densityChunkCap = getConfig().getInt("density-chunk-cap", 50); // Default 50 per chunk
+        this.densityMaxChunks = getConfig().getInt("density-max-chunks", 64); // Default 64 chunks per cleanup
+        this.partialLowWaterRatio = getConfig().getDouble("partial-cleanup.low-water-ratio", 0.6); // Default 60% of the threshold
+        String victimPolicyName = getConfig().getString("partial-cleanup.victim-policy", "oldest");
+        this.partialVictimPolicy = PartialCleanup.Policy.parse(victimPolicyName);
+
+        // Per-chunk spawn rate tracking
+        this.hotspotsEnabled = getConfig().getBoolean("spawn-hotspots.enabled", false);
+        this.hotspotsCapacity = getConfig().getInt("spawn-hotspots.capacity", 1024);
+        this.hotspotsHalfLifeSeconds = getConfig().getLong("spawn-hotspots.half-life-seconds", 120); // Default 2 minutes
+        this.hotspotsFeedCleanup = getConfig().getBoolean("spawn-hotspots.feed-cleanup", false);
+        this.lazySweepEnabled = getConfig().getBoolean("lazy-sweep.enabled", false);
+
         // Ensure intervals and delay are positive
         if (this.cleanupIntervalTicks <= 0) {
             getLogger().warning("config.yml 中的 cleanup-interval-seconds 无效。使用默认值 300 秒。");
@@ -94,6 +315,10 @@ public final class EntityCleanupPlugin extends JavaPlugin {
             getLogger().warning("config.yml 中的 cleanup-delay-seconds 无效。使用默认值 60 秒。");
             this.cleanupDelayTicks = 60 * 20L;
         }
+        if (this.cleanupCooldownTicks < 0) {
+            getLogger().warning("config.yml 中的 cleanup-cooldown-seconds 无效。使用默认值 10 秒。");
+            this.cleanupCooldownTicks = 10 * 20L;
+        }
         if (this.countingIntervalTicks <= 0) {
             getLogger().warning("config.yml 中的 counting-interval-seconds 无效。使用默认值 15 秒。");
             this.countingIntervalTicks = 15 * 20L;
@@ -102,56 +327,213 @@ public final class EntityCleanupPlugin extends JavaPlugin {
             getLogger().warning("config.yml 中的 max-entities-before-cleanup 无效。使用默认值 150。");
             this.maxEntitiesBeforeCleanup = 150;
         }
+        if (this.countingMode == null) {
+            getLogger().warning("config.yml 中的 counting-mode 无效: " + countingModeName + "。使用默认值 scan。");
+            this.countingMode = CountingMode.SCAN;
+        }
+        if (this.trackingReconcileIntervalTicks <= 0) {
+            getLogger().warning("config.yml 中的 tracking-reconcile-interval-seconds 无效。使用默认值 300 秒。");
+            this.trackingReconcileIntervalTicks = 300 * 20L;
+        }
+        if (this.auditLogBufferSize <= 0) {
+            getLogger().warning("config.yml 中的 audit-log.buffer-size 无效。使用默认值 65536。");
+            this.auditLogBufferSize = 65536;
+        }
+        if (this.auditLogMaxFileBytes <= 0) {
+            getLogger().warning("config.yml 中的 audit-log.max-file-size-mb 无效。使用默认值 16 MB。");
+            this.auditLogMaxFileBytes = 16 * 1024L * 1024L;
+        }
+        if (this.auditLogMaxFiles <= 0) {
+            getLogger().warning("config.yml 中的 audit-log.max-files 无效。使用默认值 30。");
+            this.auditLogMaxFiles = 30;
+        }
+        if (this.metricsExportIntervalTicks <= 0) {
+            getLogger().warning("config.yml 中的 metrics-export.interval-seconds 无效。使用默认值 15 秒。");
+            this.metricsExportIntervalTicks = 15 * 20L;
+        }
+        if (this.permissionRefreshTicks <= 0) {
+            getLogger().warning("config.yml 中的 broadcast.permission-refresh-seconds 无效。使用默认值 60 秒。");
+            this.permissionRefreshTicks = 60 * 20L;
+        }
+        if (this.warningCoalesceMillis < 0) {
+            getLogger().warning("config.yml 中的 broadcast.warning-coalesce-seconds 无效。使用默认值 30 秒。");
+            this.warningCoalesceMillis = 30 * 1000L;
+        }
+        if (this.countingSliceChunks < 0) {
+            getLogger().warning("config.yml 中的 counting-slice-chunks 无效。使用默认值 0。");
+            this.countingSliceChunks = 0;
+        }
+        if (this.cleanupMode == null) {
+            getLogger().warning("config.yml 中的 cleanup-mode 无效: " + cleanupModeName + "。使用默认值 instant。");
+            this.cleanupMode = CleanupMode.INSTANT;
+        }
+        if (this.cleanupTickBudgetMicros <= 0) {
+            getLogger().warning("config.yml 中的 cleanup-tick-budget-micros 无效。使用默认值 2000 微秒。");
+            this.cleanupTickBudgetMicros = 2000;
+        }
+        if (this.cleanupMaxTicks <= 0) {
+            getLogger().warning("config.yml 中的 cleanup-max-ticks 无效。使用默认值 100。");
+            this.cleanupMaxTicks = 100;
+        }
+        if (this.densityChunkCap < 0) {
+            getLogger().warning("config.yml 中的 density-chunk-cap 无效。使用默认值 50。");
+            this.densityChunkCap = 50;
+        }
+        if (this.densityMaxChunks <= 0) {
+            getLogger().warning("config.yml 中的 density-max-chunks 无效。使用默认值 64。");
+            this.densityMaxChunks = 64;
+        }
+        if (this.partialLowWaterRatio < 0 || this.partialLowWaterRatio > 1) {
+            getLogger().warning("config.yml 中的 partial-cleanup.low-water-ratio 无效（必须在 0 到 1 之间）。使用默认值 0.6。");
+            this.partialLowWaterRatio = 0.6;
+        }
+        if (this.partialVictimPolicy == null) {
+            getLogger().warning("config.yml 中的 partial-cleanup.victim-policy 无效: " + victimPolicyName + "。使用默认值 oldest。");
+            this.partialVictimPolicy = PartialCleanup.Policy.OLDEST;
+        }
+        if (this.partialVictimPolicy == PartialCleanup.Policy.HOTSPOT && !this.hotspotsEnabled) {
+            getLogger().warning("config.yml 中的 partial-cleanup.victim-policy 为 hotspot，但 spawn-hotspots 未启用。使用 oldest。");
+            this.partialVictimPolicy = PartialCleanup.Policy.OLDEST;
+        }
+        if (this.lazySweepEnabled && this.cleanupMode == CleanupMode.PARTIAL) {
+            // A chunk on its own can't tell how many entities the partial cleanup would leave in it
+            getLogger().warning("lazy-sweep 不支持 partial 清理模式，已禁用延迟清理。");
+            this.lazySweepEnabled = false;
+        }
+        if (this.hotspotsCapacity <= 0) {
+            getLogger().warning("config.yml 中的 spawn-hotspots.capacity 无效。使用默认值 1024。");
+            this.hotspotsCapacity = 1024;
+        }
+        if (this.hotspotsHalfLifeSeconds <= 0) {
+            getLogger().warning("config.yml 中的 spawn-hotspots.half-life-seconds 无效。使用默认值 120 秒。");
+            this.hotspotsHalfLifeSeconds = 120;
+        }
 
 
         // Load entities to clear from config.yml
         loadEntitiesToClear();
 
+        // Load item and XP consolidation settings
+        loadItemConsolidation();
+
+        // Load the MSPT-driven scheduling settings
+        ConfigurationSection adaptiveSection = getConfig().getConfigurationSection("adaptive-cleanup");
+        if (adaptiveSection != null && adaptiveSection.getBoolean("enabled", false)) {
+            this.adaptiveScheduler = AdaptiveCleanupScheduler.load(this, adaptiveSection, cleanupIntervalTicks, maxEntitiesBeforeCleanup, getLogger());
+            getLogger().info("自适应清理已启用。清理间隔和实体阈值将根据服务器 MSPT 自动调整。");
+        } else {
+            this.adaptiveScheduler = null;
+        }
+
         getLogger().info("配置已加载。清理间隔: " + (cleanupIntervalTicks / 20) + " 秒, 清理延迟: " + (cleanupDelayTicks / 20) + " 秒.");
         getLogger().info("实体计数间隔: " + (countingIntervalTicks / 20) + " 秒, 触发清理的实体阈值: " + maxEntitiesBeforeCleanup);
+        getLogger().info("实体计数模式: " + countingMode.name().toLowerCase());
+        getLogger().info("清理模式: " + cleanupMode.name().toLowerCase() + (cleanupMode == CleanupMode.SLICED
+                ? " (每 tick " + cleanupTickBudgetMicros + " 微秒, 最多 " + cleanupMaxTicks + " tick)"
+                : cleanupMode == CleanupMode.DENSITY
+                ? " (每区块上限 " + densityChunkCap + ", 每次最多 " + densityMaxChunks + " 个区块)"
+                : cleanupMode == CleanupMode.PARTIAL
+                ? " (保留阈值的 " + Math.round(partialLowWaterRatio * 100) + "%, 优先移除: " + partialVictimPolicy.name().toLowerCase() + ")" : ""));
     }
 
     /**
-     * Loads the list of entity types to clear from config.yml.
+     * Compiles the cleanup rules from config.yml: the global entity list and rules, plus per-world overrides.
      */
     private void loadEntitiesToClear() {
-        this.entitiesToClear = new ArrayList<>();
-        List<String> entityTypeNames = getConfig().getStringList("entities-to-clear");
+        this.defaultRules = EntityRules.load(getConfig(), null, "config.yml", getLogger());
+        this.worldRules = new HashMap<>();
+        this.worldSettings = new HashMap<>();
 
-        if (entityTypeNames == null || entityTypeNames.isEmpty()) {
+        if (defaultRules.getTypes().isEmpty()) {
             getLogger().warning("config.yml 中未配置 'entities-to-clear' 列表或为空。将不会自动清理任何实体。");
-            return;
         }
+        getLogger().info("已加载要清理的实体类型: " + defaultRules.getTypes().stream().map(Enum::name).collect(Collectors.joining(", ")));
+
+        // Per-world overrides inherit anything they don't set from the global rules
+        ConfigurationSection worldsSection = getConfig().getConfigurationSection("worlds");
+        if (worldsSection != null) {
+            for (String worldName : worldsSection.getKeys(false)) {
+                ConfigurationSection worldSection = worldsSection.getConfigurationSection(worldName);
+                if (worldSection == null) {
+                    continue;
+                }
+                EntityRules rules = EntityRules.load(worldSection, defaultRules, "config.yml worlds." + worldName, getLogger());
+                this.worldRules.put(worldName, rules);
+                getLogger().info("世界 " + worldName + " 的清理规则已加载，实体类型: " + rules.getTypes().stream().map(Enum::name).collect(Collectors.joining(", ")));
 
-        for (String typeName : entityTypeNames) {
-            try {
-                EntityType entityType = EntityType.valueOf(typeName.toUpperCase());
-                this.entitiesToClear.add(entityType);
-            } catch (IllegalArgumentException e) {
-                getLogger().warning("config.yml 中无效的实体类型: " + typeName + ". 已跳过.");
+                WorldSettings settings = WorldSettings.load(worldName, worldSection, cleanupIntervalTicks, maxEntitiesBeforeCleanup, getLogger());
+                this.worldSettings.put(worldName, settings);
+                if (!settings.isEnabled()) {
+                    getLogger().info("世界 " + worldName + " 已禁用，不会被计数或清理。");
+                } else if (settings.hasOwnSchedule()) {
+                    getLogger().info("世界 " + worldName + " 使用独立的清理计划。清理间隔: " + (settings.getCleanupIntervalTicks() / 20)
+                            + " 秒, 实体阈值: " + settings.getMaxEntitiesBeforeCleanup());
+                }
             }
         }
+    }
+
+
+    /**
+     * Loads the item and XP orb consolidation settings from config.yml.
+     */
+    private void loadItemConsolidation() {
+        ConfigurationSection section = getConfig().getConfigurationSection("item-consolidation");
+        if (section == null || !section.getBoolean("enabled", false)) {
+            this.itemConsolidator = null;
+            return;
+        }
+
+        double radius = section.getDouble("radius", 2.0); // Default 2 blocks
+        int chunkCap = section.getInt("chunk-cap", 64); // Default 64 per chunk
+        if (radius <= 0) {
+            getLogger().warning("config.yml 中的 item-consolidation.radius 无效。使用默认值 2.0。");
+            radius = 2.0;
+        }
+        if (chunkCap < 0) {
+            getLogger().warning("config.yml 中的 item-consolidation.chunk-cap 无效。使用默认值 64。");
+            chunkCap = 64;
+        }
 
-        getLogger().info("已加载要清理的实体类型: " + this.entitiesToClear.stream().map(Enum::name).collect(Collectors.joining(", ")));
+        this.itemConsolidator = new ItemConsolidator(radius, chunkCap);
+        getLogger().info("掉落物与经验球合并已启用。合并半径: " + radius + " 格, 每区块上限: " + chunkCap);
     }
 
 
     /**
-     * Schedules the asynchronous task that will trigger the synchronous entity cleanup.
+     * Creates the cleanup coordinators of the shared worlds and of each world with its own schedule, and
+     * starts the one timer that advances their countdowns. The timer is never cancelled or re-registered:
+     * a cleanup triggered some other way only restarts the countdown of its coordinator.
      */
-    private void scheduleScheduledCleanupTimerTask() {
-        // Cancel any existing task before scheduling a new one
-        if (scheduledCleanupTimerTask != null && !scheduledCleanupTimerTask.isCancelled()) {
-            scheduledCleanupTimerTask.cancel();
+    private void startCleanupScheduling() {
+        // In adaptive mode the interval is read from the controller on every tick, so it follows MSPT
+        cleanupCoordinator = new CleanupCoordinator(this, null, cleanupDelayTicks,
+                () -> adaptiveScheduler != null ? adaptiveScheduler.getIntervalTicks() : cleanupIntervalTicks, cleanupCooldownTicks);
+        for (WorldSettings settings : worldSettings.values()) {
+            if (settings.hasOwnSchedule()) {
+                // Scaled by the same adaptive factor as the global interval
+                worldCoordinators.put(settings.getWorldName(),
+                        new CleanupCoordinator(this, settings.getWorldName(), cleanupDelayTicks, () -> getWorldCleanupIntervalTicks(settings), cleanupCooldownTicks));
+            }
         }
 
-        // Schedule an asynchronous task that will, when run, schedule the synchronous cleanup.
-        this.scheduledCleanupTimerTask = getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
-            // This code runs asynchronously. We now schedule the actual cleanup synchronously.
-            Bukkit.getScheduler().runTask(this, new CleanupTask(this, false));
-        }, cleanupDelayTicks, cleanupIntervalTicks);
+        cleanupClockTask = pluginScheduler.runAsyncTimer(() -> {
+            cleanupCoordinator.tick(CLEANUP_CLOCK_TICKS);
+            for (CleanupCoordinator coordinator : worldCoordinators.values()) {
+                coordinator.tick(CLEANUP_CLOCK_TICKS);
+            }
+        }, CLEANUP_CLOCK_TICKS, CLEANUP_CLOCK_TICKS);
 
-        getLogger().info("实体清理定时器任务已安排。首次触发将在 " + (cleanupDelayTicks / 20) + " 秒后，之后每 " + (cleanupIntervalTicks / 20) + " 秒触发一次。");
+        if (adaptiveScheduler != null) {
+            adaptiveSampleTask = pluginScheduler.runAsyncTimer(adaptiveScheduler, adaptiveScheduler.getSampleTicks(), adaptiveScheduler.getSampleTicks());
+            getLogger().info("实体清理定时器任务已安排（自适应）。首次触发将在 " + (cleanupDelayTicks / 20) + " 秒后，之后每 "
+                    + (adaptiveScheduler.getIntervalTicks() / 20) + " 秒左右触发一次，并随 MSPT 调整。");
+        } else {
+            getLogger().info("实体清理定时器任务已安排。首次触发将在 " + (cleanupDelayTicks / 20) + " 秒后，之后每 " + (cleanupIntervalTicks / 20) + " 秒触发一次。");
+        }
+        if (cleanupCooldownTicks > 0) {
+            getLogger().info("两次清理之间至少间隔 " + (cleanupCooldownTicks / 20) + " 秒，期间的清理请求将合并为一次。");
+        }
     }
 
     /**
@@ -163,12 +545,30 @@ public final class EntityCleanupPlugin extends JavaPlugin {
             countingTask.cancel();
         }
 
+        // In tracked mode the threshold is checked on every add/remove event,
+        // so the timer only needs to run the periodic reconciliation scan on the main thread
+        if (countingMode == CountingMode.TRACKED && entityTracker != null) {
+            this.countingTask = pluginScheduler.runGlobalTimer(entityTracker::reconcile, 1L, trackingReconcileIntervalTicks);
+            getLogger().info("实体计数器已启用（事件驱动）。每 " + (trackingReconcileIntervalTicks / 20) + " 秒校准一次。");
+            return;
+        }
+
+        // In staggered mode, count one slice every tick so the cost is spread across the interval.
+        // Folia already spreads the scan over the region threads, so it keeps the regular per-region scan.
+        if (countingMode == CountingMode.STAGGERED && !pluginScheduler.isFolia()) {
+            StaggeredCountingTask staggeredTask = new StaggeredCountingTask(this, countingIntervalTicks, countingSliceChunks);
+            this.countingTask = pluginScheduler.runGlobalTimer(staggeredTask, 1L, 1L);
+            getLogger().info("实体计数任务已安排（分片）。每 tick 计数" + (countingSliceChunks > 0 ? " " + countingSliceChunks + " 个区块" : "一个世界")
+                    + "，每 " + (countingIntervalTicks / 20) + " 秒覆盖所有世界。");
+            return;
+        }
+
         // Create the counting task
         EntityCountingTask task = new EntityCountingTask(this);
 
         // Schedule the task to run asynchronously with a repeating interval
         // The first run will happen after countingIntervalTicks, then repeat every countingIntervalTicks
-        this.countingTask = getServer().getScheduler().runTaskTimerAsynchronously(this, task, countingIntervalTicks, countingIntervalTicks);
+        this.countingTask = pluginScheduler.runAsyncTimer(task, countingIntervalTicks, countingIntervalTicks);
 
         getLogger().info("实体计数任务已安排。每 " + (countingIntervalTicks / 20) + " 秒运行一次。");
     }
@@ -176,6 +576,7 @@ public final class EntityCleanupPlugin extends JavaPlugin {
 
     /**
      * Helper method to reload a resource file (like messages.yml).
+     * messages.yml is compiled into the in-memory message catalog.
      *
      * @param resourceName The name of the resource file.
      */
@@ -183,21 +584,17 @@ public final class EntityCleanupPlugin extends JavaPlugin {
         // Get the file from the plugin data folder
         java.io.File resourceFile = new java.io.File(getDataFolder(), resourceName);
 
-        // If the file exists, load it
-        if (resourceFile.exists()) {
-            try {
-                // Load the YAML file
-                org.bukkit.configuration.file.YamlConfiguration config = org.bukkit.configuration.file.YamlConfiguration.loadConfiguration(resourceFile);
-                // Set this as the messages config (or handle differently if you have multiple resource files)
-                // For simplicity, we'll just log if it loads. In a real plugin, you'd store this config object.
-                getLogger().info(resourceName + " 已重新加载。");
-            } catch (Exception e) {
-                getLogger().severe("无法加载 " + resourceName + ": " + e.getMessage());
-                e.printStackTrace();
-            }
-        } else {
+        // Save the default if it doesn't exist
+        if (!resourceFile.exists()) {
             getLogger().warning(resourceName + " 不存在。正在保存默认文件。");
-            saveResource(resourceName, false); // Save the default if it doesn't exist
+            saveResource(resourceName, false);
+        }
+
+        if (messageCatalog == null) {
+            messageCatalog = new MessageCatalog(resourceFile, getLogger());
+        }
+        if (messageCatalog.reload()) {
+            getLogger().info(resourceName + " 已重新加载。");
         }
     }
 
@@ -205,37 +602,286 @@ public final class EntityCleanupPlugin extends JavaPlugin {
      * Gets a message from messages.yml.
      *
      * @param key The key for the message.
-     * @return The message string, or a default message if not found.
+     * @return The colorized message string, or a default message if not found.
      */
     public String getMessage(String key) {
-        // Load messages.yml explicitly to get its configuration
-        java.io.File messagesFile = new java.io.File(getDataFolder(), "messages.yml");
-        org.bukkit.configuration.file.YamlConfiguration messagesConfig = org.bukkit.configuration.file.YamlConfiguration.loadConfiguration(messagesFile);
+        return messageCatalog.get(key).text();
+    }
+
+    /**
+     * Gets a precompiled message template from messages.yml, for messages with placeholders.
+     *
+     * @param key The key for the message.
+     * @return The message template, or a template describing the missing key.
+     */
+    public MessageTemplate getMessageTemplate(String key) {
+        return messageCatalog.get(key);
+    }
+
+    /**
+     * Gets the scheduling layer, which runs work on the main thread (Paper) or the owning region (Folia).
+     *
+     * @return The plugin scheduler.
+     */
+    public PluginScheduler getPluginScheduler() {
+        return pluginScheduler;
+    }
+
+    /**
+     * Gets the compiled cleanup rules that apply to a world.
+     *
+     * @param world The world.
+     * @return The world's override if it has one, otherwise the global rules.
+     */
+    public EntityRules getRules(World world) {
+        if (worldRules.isEmpty()) {
+            return defaultRules;
+        }
+        return worldRules.getOrDefault(world.getName(), defaultRules);
+    }
+
+    /**
+     * Checks whether a world is counted and cleaned at all.
+     *
+     * @param world The world.
+     * @return False if the world is disabled in its {@code worlds} section.
+     */
+    public boolean isCleanupEnabled(World world) {
+        WorldSettings settings = worldSettings.get(world.getName());
+        return settings == null || settings.isEnabled();
+    }
+
+    /**
+     * Gets the scheduling settings of a world that has its own cleanup timer and threshold.
+     *
+     * @param world The world.
+     * @return The settings, or null if the world follows the global schedule (or is disabled).
+     */
+    public WorldSettings getOwnSchedule(World world) {
+        if (worldSettings.isEmpty()) {
+            return null;
+        }
+        WorldSettings settings = worldSettings.get(world.getName());
+        return settings != null && settings.hasOwnSchedule() ? settings : null;
+    }
+
+    /**
+     * Checks whether a world counts towards the global threshold and is swept by the global cleanup.
+     *
+     * @param world The world.
+     * @return True if the world is enabled and has no schedule of its own.
+     */
+    public boolean isSharedWorld(World world) {
+        WorldSettings settings = worldSettings.get(world.getName());
+        return settings == null || (settings.isEnabled() && !settings.hasOwnSchedule());
+    }
+
+    /**
+     * Gets the worlds swept by the global cleanup timer and counted towards the global threshold.
+     *
+     * @return The enabled worlds without a schedule of their own.
+     */
+    public List<World> getSharedWorlds() {
+        List<World> worlds = new ArrayList<>();
+        for (World world : Bukkit.getWorlds()) {
+            if (isSharedWorld(world)) {
+                worlds.add(world);
+            }
+        }
+        return worlds;
+    }
+
+    /**
+     * Gets every world that may be counted or cleaned.
+     *
+     * @return The enabled worlds.
+     */
+    public List<World> getEnabledWorlds() {
+        List<World> worlds = new ArrayList<>();
+        for (World world : Bukkit.getWorlds()) {
+            if (isCleanupEnabled(world)) {
+                worlds.add(world);
+            }
+        }
+        return worlds;
+    }
+
+    /**
+     * Gets the configured cleanup mode.
+     *
+     * @return Whether cleanup runs in a single pass or is sliced across ticks.
+     */
+    public CleanupMode getCleanupMode() {
+        return cleanupMode;
+    }
+
+    /**
+     * Gets the time a sliced cleanup may spend per tick.
+     *
+     * @return The per-tick budget in microseconds.
+     */
+    public long getCleanupTickBudgetMicros() {
+        return cleanupTickBudgetMicros;
+    }
+
+    /**
+     * Gets the maximum number of ticks a sliced cleanup may take before it finishes in one go.
+     *
+     * @return The tick limit.
+     */
+    public int getCleanupMaxTicks() {
+        return cleanupMaxTicks;
+    }
+
+    /**
+     * Gets the cleanup coordinators of the worlds with their own schedule.
+     *
+     * @return The coordinators; empty when no world has its own schedule.
+     */
+    public Collection<CleanupCoordinator> getWorldCoordinators() {
+        return worldCoordinators.values();
+    }
+
+    /**
+     * Gets the cleanup and counting performance metrics.
+     *
+     * @return The metrics.
+     */
+    public CleanupMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the removal audit log.
+     *
+     * @return The audit log, or null if it is disabled.
+     */
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * Gets the item and XP orb consolidator.
+     *
+     * @return The consolidator, or null if consolidation is disabled.
+     */
+    public ItemConsolidator getItemConsolidator() {
+        return itemConsolidator;
+    }
+
+    /**
+     * Gets the per-chunk density index.
+     *
+     * @return The index, or null if density cleanup is not enabled.
+     */
+    public ChunkDensityIndex getChunkDensityIndex() {
+        return chunkDensityIndex;
+    }
+
+    /**
+     * Gets the number of matching entities a chunk may hold before density cleanup thins it out.
+     *
+     * @return The per-chunk cap.
+     */
+    public int getDensityChunkCap() {
+        return densityChunkCap;
+    }
+
+    /**
+     * Gets the maximum number of chunks a single density cleanup visits.
+     *
+     * @return The chunk limit.
+     */
+    public int getDensityMaxChunks() {
+        return densityMaxChunks;
+    }
 
-        // Get the message string, colorize it, and return
-        String message = messagesConfig.getString(key, "§c消息键 '" + key + "' 未在 messages.yml 中找到.");
-        // Use Bukkit ChatColor for standard messages
-        return org.bukkit.ChatColor.translateAlternateColorCodes('&', Objects.requireNonNull(message));
+    /**
+     * Gets the share of the threshold a partial cleanup leaves in place.
+     *
+     * @return The low-water ratio, between 0 and 1.
+     */
+    public double getPartialLowWaterRatio() {
+        return partialLowWaterRatio;
+    }
+
+    /**
+     * Gets which entities a partial cleanup removes first.
+     *
+     * @return The victim policy.
+     */
+    public PartialCleanup.Policy getPartialVictimPolicy() {
+        return partialVictimPolicy;
+    }
+
+    /**
+     * Gets the per-chunk spawn rate tracker.
+     *
+     * @return The tracker, or null if spawn hotspots are not tracked.
+     */
+    public SpawnHotspotTracker getSpawnHotspotTracker() {
+        return spawnHotspotTracker;
+    }
+
+    /**
+     * Gets the sweeper that cleans chunks as their entities load.
+     *
+     * @return The sweeper, or null if lazy sweeping is disabled.
+     */
+    public LazyChunkSweeper getLazyChunkSweeper() {
+        return lazyChunkSweeper;
     }
 
     /**
-     * Gets the list of entity types configured for cleanup.
+     * Checks whether density cleanup should visit the chunks with the highest spawn rate first.
      *
-     * @return The list of entity types to clear.
+     * @return True if the hotspot tracker feeds the cleanup.
      */
-    public List<EntityType> getEntitiesToClear() {
-        return entitiesToClear;
+    public boolean isHotspotsFeedCleanup() {
+        return hotspotsFeedCleanup;
     }
 
     /**
      * Gets the maximum number of undesired entities allowed before immediate cleanup.
+     * In adaptive mode this follows the server's MSPT.
      *
      * @return The maximum entity threshold.
      */
     public int getMaxEntitiesBeforeCleanup() {
+        if (adaptiveScheduler != null) {
+            return adaptiveScheduler.getThreshold();
+        }
         return maxEntitiesBeforeCleanup;
     }
 
+    /**
+     * Gets the threshold of a world with its own schedule.
+     * In adaptive mode it is scaled by the same factor as the global threshold.
+     *
+     * @param settings The world's settings.
+     * @return The world's entity threshold.
+     */
+    public int getWorldMaxEntities(WorldSettings settings) {
+        if (adaptiveScheduler != null) {
+            return adaptiveScheduler.scaleThreshold(settings.getMaxEntitiesBeforeCleanup());
+        }
+        return settings.getMaxEntitiesBeforeCleanup();
+    }
+
+    /**
+     * Gets the cleanup interval of a world with its own schedule.
+     * In adaptive mode it is scaled by the same factor as the global interval.
+     *
+     * @param settings The world's settings.
+     * @return The world's interval in ticks.
+     */
+    public long getWorldCleanupIntervalTicks(WorldSettings settings) {
+        if (adaptiveScheduler != null) {
+            return adaptiveScheduler.scaleInterval(settings.getCleanupIntervalTicks());
+        }
+        return settings.getCleanupIntervalTicks();
+    }
+
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
@@ -246,16 +892,28 @@ public final class EntityCleanupPlugin extends JavaPlugin {
                 return true;
             }
 
+            // /clearlag stats shows the performance metrics
+            if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+                sendStats(sender);
+                return true;
+            }
+
+            // /clearlag hotspots lists the chunks with the highest spawn rates
+            if (args.length == 1 && args[0].equalsIgnoreCase("hotspots")) {
+                sendHotspots(sender);
+                return true;
+            }
+
             // Check for correct command usage
             if (args.length != 0) {
                 sender.sendMessage(getMessage("messages.command-usage"));
                 return true;
             }
 
-            // Schedule the cleanup task to run synchronously on the main thread
-            Bukkit.getScheduler().runTask(this, new CleanupTask(this, true, sender));
+            // Hand the cleanup to the coordinator; it merges the request with any sweep that covers every world
+            cleanupCoordinator.request(CleanupTrigger.MANUAL, sender);
 
-            // The task will send the success message upon completion
+            // The coordinator will send the success message upon completion
 
             return true;
         } else if (command.getName().equalsIgnoreCase("qq")) { // Handle the /qq command
@@ -283,6 +941,104 @@ public final class EntityCleanupPlugin extends JavaPlugin {
         return false; // Return false if the command is not handled here
     }
 
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (command.getName().equalsIgnoreCase("clearlag") && args.length == 1 && sender.hasPermission(COMMAND_PERMISSION)) {
+            return List.of("stats", "hotspots").stream()
+                    .filter(option -> option.startsWith(args[0].toLowerCase()))
+                    .collect(Collectors.toList());
+        }
+        return List.of();
+    }
+
+    /**
+     * Sends the chunks with the highest recent spawn rates to a command sender.
+     *
+     * @param sender The command sender.
+     */
+    private void sendHotspots(CommandSender sender) {
+        if (spawnHotspotTracker == null) {
+            sender.sendMessage(ChatColor.RED + "生成热点统计未启用（config.yml 中的 spawn-hotspots.enabled）。");
+            return;
+        }
+        List<SpawnHotspotTracker.Hotspot> hotspots = spawnHotspotTracker.getHotspots(10);
+        if (hotspots.isEmpty()) {
+            sender.sendMessage(ChatColor.GREEN + "[清理] 最近没有频繁生成实体的区块。");
+            return;
+        }
+        sender.sendMessage(ChatColor.GREEN + "[清理] 生成最频繁的区块（次/分钟）");
+        for (SpawnHotspotTracker.Hotspot hotspot : hotspots) {
+            sender.sendMessage(ChatColor.YELLOW + hotspot.worldName() + " " + hotspot.chunkX() + ", " + hotspot.chunkZ()
+                    + " (方块 " + (hotspot.chunkX() << 4) + ", " + (hotspot.chunkZ() << 4) + "): "
+                    + ChatColor.WHITE + String.format("%.1f", hotspot.spawnsPerMinute())
+                    + (hotspot.reasons().isEmpty() ? "" : ChatColor.GRAY + " [" + hotspot.reasons() + "]"));
+        }
+    }
+
+    /**
+     * Sends the cleanup and counting performance metrics to a command sender.
+     *
+     * @param sender The command sender.
+     */
+    private void sendStats(CommandSender sender) {
+        sender.sendMessage(ChatColor.GREEN + "[清理] 性能统计（最近 " + metrics.cleanupScanMicros().count() + " 次清理）");
+        sender.sendMessage(formatPercentiles("清理扫描耗时", metrics.cleanupScanMicros(), "μs"));
+        sender.sendMessage(formatPercentiles("清理移除耗时", metrics.cleanupRemoveMicros(), "μs"));
+        sender.sendMessage(formatPercentiles("每次检查实体", metrics.cleanupExamined(), ""));
+        sender.sendMessage(formatPercentiles("每次移除实体", metrics.cleanupRemoved(), ""));
+        sender.sendMessage(formatPercentiles("计数扫描耗时", metrics.countingScanMicros(), "μs"));
+        sender.sendMessage(ChatColor.YELLOW + "清理次数: " + ChatColor.WHITE + metrics.cleanupRuns()
+                + ChatColor.YELLOW + "  计数次数: " + ChatColor.WHITE + metrics.countingRuns());
+        if (spawnLimiter != null) {
+            String denied = spawnLimiter.describeDenied();
+            sender.sendMessage(ChatColor.YELLOW + "已阻止生成: " + ChatColor.WHITE + (denied.isEmpty() ? "0" : denied));
+        }
+        if (adaptiveScheduler != null) {
+            double mspt = adaptiveScheduler.getSmoothedMspt();
+            sender.sendMessage(ChatColor.YELLOW + "自适应: " + ChatColor.WHITE + "MSPT " + (Double.isNaN(mspt) ? "-" : String.format("%.1f", mspt))
+                    + ", 间隔 " + (adaptiveScheduler.getIntervalTicks() / 20) + " 秒, 阈值 " + adaptiveScheduler.getThreshold());
+        }
+        sender.sendMessage(ChatColor.YELLOW + "合并的清理请求: " + ChatColor.WHITE + cleanupCoordinator.getCoalescedCount()
+                + ChatColor.YELLOW + "  当前状态: " + ChatColor.WHITE + cleanupCoordinator.getState().name().toLowerCase());
+        if (lazyChunkSweeper != null) {
+            sender.sendMessage(ChatColor.YELLOW + "延迟清理: " + ChatColor.WHITE + "区块 " + lazyChunkSweeper.getSweptChunks()
+                    + ", 移除 " + lazyChunkSweeper.getRemovedCount());
+        }
+        if (auditLog != null) {
+            sender.sendMessage(ChatColor.YELLOW + "审计日志丢弃记录: " + ChatColor.WHITE + auditLog.getDroppedCount());
+        }
+
+        for (Map.Entry<String, CleanupMetrics.WorldTotals> entry : metrics.worldTotals().entrySet()) {
+            CleanupMetrics.WorldTotals totals = entry.getValue();
+            sender.sendMessage(ChatColor.YELLOW + "世界 " + entry.getKey() + ": " + ChatColor.WHITE + "检查 " + totals.examined()
+                    + ", 移除 " + totals.removed() + ", 扫描耗时 " + totals.scanMicros() / 1000L + " ms"
+                    + ", 移除耗时 " + totals.removeMicros() / 1000L + " ms");
+        }
+        Map<String, Long> examined = metrics.examinedByType();
+        if (!examined.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "按类型检查: " + ChatColor.WHITE + examined.entrySet().stream()
+                    .map(entry -> entry.getKey() + "=" + entry.getValue())
+                    .collect(Collectors.joining(", ")));
+        }
+        Map<String, Long> byType = metrics.removedByType();
+        if (!byType.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "按类型移除: " + ChatColor.WHITE + byType.entrySet().stream()
+                    .map(entry -> entry.getKey() + "=" + entry.getValue())
+                    .collect(Collectors.joining(", ")));
+        }
+        Map<String, Long> merged = metrics.mergedByType();
+        if (!merged.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "按类型合并: " + ChatColor.WHITE + merged.entrySet().stream()
+                    .map(entry -> entry.getKey() + "=" + entry.getValue())
+                    .collect(Collectors.joining(", ")));
+        }
+    }
+
+    private static String formatPercentiles(String label, RollingHistogram.Snapshot snapshot, String unit) {
+        return ChatColor.YELLOW + label + ": " + ChatColor.WHITE + "p50 " + snapshot.p50() + unit
+                + ", p95 " + snapshot.p95() + unit + ", max " + snapshot.max() + unit;
+    }
+
     /**
      * Sends a message to all online players who have the required permission.
      * Uses BungeeCord TextComponent for potentially richer messages in the future.
@@ -290,35 +1046,62 @@ public final class EntityCleanupPlugin extends JavaPlugin {
      * @param message The message to send.
      */
     public void sendMessageToPermittedPlayers(String message) {
-        Bukkit.getScheduler().runTask(this, () -> {
-            for (org.bukkit.entity.Player player : Bukkit.getOnlinePlayers()) {
-                if (player.hasPermission(MESSAGE_PERMISSION)) {
-                    // Use Spigot's sendMessage method which handles TextComponents
-                    player.spigot().sendMessage(new TextComponent(message));
-                }
-            }
-        });
+        broadcaster.broadcast(message);
     }
 
     /**
-     * Triggers an immediate entity cleanup and resets the scheduled timer.
-     * This method is called from an asynchronous task (EntityCountingTask).
-     * It schedules the cleanup to run synchronously.
+     * Warns permitted players that the entity threshold has been exceeded and triggers an immediate cleanup.
+     * Called by both the scanning {@link EntityCountingTask} and the event-driven {@link EntityTracker}.
+     *
+     * @param totalUndesiredEntities The current number of entities that count towards the threshold.
      */
-    public void triggerImmediateCleanup() {
-        // Log the message with color codes for the console
-        getLogger().info("\u001B[31m实体数量超过阈值，触发立即清理！\u001B[0m"); // Red ANSI color
+    public void handleThresholdExceeded(int totalUndesiredEntities) {
+        int maxEntities = getMaxEntitiesBeforeCleanup();
+
+        // Log the warning message with color codes for the console
+        getLogger().warning("\u001B[31m实体数量 (\u001B[33m" + totalUndesiredEntities + "\u001B[31m) 已超过限制 (\u001B[33m" + maxEntities + "\u001B[31m)！正在触发立即清理。\u001B[0m"); // Red and Yellow ANSI colors
+
+        // Send the threshold exceeded message to permitted players
+        // Repeated warnings within the coalescing window collapse into one message
+        String thresholdMessage = getMessageTemplate("messages.threshold-exceeded").render(totalUndesiredEntities, maxEntities);
+        broadcaster.broadcastWarning(thresholdMessage);
+
+        // Trigger an immediate cleanup (this method will schedule the cleanup synchronously)
+        triggerImmediateCleanup();
+    }
 
-        // Cancel the currently scheduled cleanup timer task
-        if (scheduledCleanupTimerTask != null && !scheduledCleanupTimerTask.isCancelled()) {
-            scheduledCleanupTimerTask.cancel();
-            getLogger().info("已取消原定的实体清理定时器任务。");
+    /**
+     * Warns permitted players that a world with its own schedule is over its threshold, and cleans only that world.
+     *
+     * @param world The world.
+     * @param count The number of matching entities in the world.
+     */
+    public void handleWorldThresholdExceeded(World world, int count) {
+        WorldSettings settings = getOwnSchedule(world);
+        CleanupCoordinator coordinator = worldCoordinators.get(world.getName());
+        if (settings == null || coordinator == null) {
+            return;
         }
+        int maxEntities = getWorldMaxEntities(settings);
 
-        // Schedule an immediate cleanup task to run synchronously on the main thread
-        Bukkit.getScheduler().runTask(this, new CleanupTask(this, false)); // Treat as scheduled for message purposes
+        getLogger().warning("\u001B[31m世界 " + world.getName() + " 的实体数量 (\u001B[33m" + count + "\u001B[31m) 已超过限制 (\u001B[33m" + maxEntities + "\u001B[31m)！正在清理该世界。\u001B[0m");
+
+        String thresholdMessage = getMessageTemplate("messages.threshold-exceeded").render(count, maxEntities);
+        broadcaster.broadcastWarning(thresholdMessage);
+
+        // Clean only this world; its countdown restarts when the sweep finishes
+        coordinator.request(CleanupTrigger.THRESHOLD, null);
+    }
+
+    /**
+     * Triggers an immediate entity cleanup. The scheduled countdown restarts when the sweep finishes.
+     * This method is called from the counting tasks, possibly off the main thread; requests arriving while
+     * a cleanup is pending, running or cooling down are merged into it.
+     */
+    public void triggerImmediateCleanup() {
+        // Log the message with color codes for the console
+        getLogger().info("\u001B[31m实体数量超过阈值，触发立即清理！\u001B[0m"); // Red ANSI color
 
-        // Reschedule the main cleanup timer task to start again after the initial delay
-        scheduleScheduledCleanupTimerTask(); // This will schedule a new task starting after cleanupDelayTicks
+        cleanupCoordinator.request(CleanupTrigger.THRESHOLD, null);
     }
 }
@@ -1,12 +1,13 @@
 package io.github.Earth1283.clearlag; // Corrected package name
 
-import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
-import org.bukkit.entity.EntityType;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class EntityCountingTask implements Runnable {
 
@@ -20,58 +21,72 @@ public class EntityCountingTask implements Runnable {
     public void run() {
         // This task runs asynchronously.
         // The core logic of counting entities requires accessing the world,
-        // which must be done on the main server thread.
+        // which must be done on the thread that owns the entities.
 
-        // Schedule the entity counting logic to run synchronously on the main thread.
+        // Schedule the entity counting logic to run on the main thread (Paper) or the global region thread (Folia).
         // We are already in an async task, so we schedule a new sync task.
-        Bukkit.getScheduler().runTask(plugin, () -> {
-            // This code now runs on the main server thread.
-
-            AtomicInteger currentEntityCount = new AtomicInteger(0);
-            List<EntityType> entitiesToClear = plugin.getEntitiesToClear(); // Get the list from the plugin
-            int maxEntities = plugin.getMaxEntitiesBeforeCleanup(); // Get the threshold
-
-            // Iterate through all worlds (on the main thread - SAFE NOW)
-            for (World world : Bukkit.getWorlds()) {
-                try {
-                    // Get all entities in the world (on the main thread - SAFE NOW)
-                    // Create a copy of the list to avoid ConcurrentModificationException
-                    List<Entity> entities = new java.util.ArrayList<>(world.getEntities());
-
-                    // Iterate through entities and count undesired ones (on the main thread)
-                    for (Entity entity : entities) {
-                        // Check if the entity's type is in the configured list of entities to clear
-                        if (entitiesToClear.contains(entity.getType())) {
-                            currentEntityCount.incrementAndGet();
-                        }
-                    }
-                } catch (Exception e) {
-                    // Log any errors during entity counting on the main thread
-                    plugin.getLogger().severe("Error during entity counting in world " + world.getName() + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
+        PluginScheduler scheduler = plugin.getPluginScheduler();
+        AtomicLong scanNanos = new AtomicLong(0); // Summed over the batches, which may run on several threads
+        // Counts of the worlds with their own threshold, kept out of the global total
+        Map<World, AtomicInteger> ownScheduleCounts = new ConcurrentHashMap<>();
+        scheduler.runGlobal(() -> scheduler.visitEntities(plugin.getEnabledWorlds(), (world, entities) -> {
+            // This code runs on the thread that owns the entities.
+            long start = System.nanoTime();
+            int currentEntityCount = 0;
+            try {
+                // Count undesired ones using the compiled rules for this world
+                currentEntityCount = countMatching(plugin.getRules(world), entities);
+            } catch (Exception e) {
+                // Log any errors during entity counting
+                plugin.getLogger().severe("Error during entity counting in world " + world.getName() + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+            scanNanos.addAndGet(System.nanoTime() - start);
+            if (plugin.getOwnSchedule(world) != null) {
+                ownScheduleCounts.computeIfAbsent(world, key -> new AtomicInteger()).addAndGet(currentEntityCount);
+                return 0;
             }
+            return currentEntityCount;
+        }, totalUndesiredEntities -> {
+            plugin.getMetrics().recordCounting(scanNanos.get());
 
-            int totalUndesiredEntities = currentEntityCount.get();
+            int maxEntities = plugin.getMaxEntitiesBeforeCleanup(); // Get the threshold
 
             // Log the current count (optional, for debugging/monitoring)
             // plugin.getLogger().info("当前世界中要清理的实体数量: " + totalUndesiredEntities);
 
             // Check if the entity count exceeds the threshold
             if (totalUndesiredEntities > maxEntities) {
-                // Log the warning message with color codes for the console
-                plugin.getLogger().warning("\u001B[31m实体数量 (\u001B[33m" + totalUndesiredEntities + "\u001B[31m) 已超过限制 (\u001B[33m" + maxEntities + "\u001B[31m)！正在触发立即清理。\u001B[0m"); // Red and Yellow ANSI colors
-
-                // Send the threshold exceeded message to permitted players
-                String thresholdMessage = plugin.getMessage("messages.threshold-exceeded")
-                        .replace("%count%", String.valueOf(totalUndesiredEntities))
-                        .replace("%limit%", String.valueOf(maxEntities));
-                plugin.sendMessageToPermittedPlayers(thresholdMessage);
+                // Warn permitted players and trigger an immediate cleanup
+                plugin.handleThresholdExceeded(totalUndesiredEntities);
+            }
 
+            // Worlds with their own threshold only clean themselves
+            for (Map.Entry<World, AtomicInteger> entry : ownScheduleCounts.entrySet()) {
+                WorldSettings settings = plugin.getOwnSchedule(entry.getKey());
+                if (settings != null && entry.getValue().get() > plugin.getWorldMaxEntities(settings)) {
+                    plugin.handleWorldThresholdExceeded(entry.getKey(), entry.getValue().get());
+                }
+            }
+        })); // End of synchronous task lambda
+    }
 
-                // Trigger an immediate cleanup (this method will schedule the cleanup synchronously)
-                plugin.triggerImmediateCleanup();
+    /**
+     * Counts the entities in a batch that match the cleanup rules.
+     *
+     * @param rules    The compiled rules for the batch's world.
+     * @param entities The entities to count.
+     * @return The number of matching entities.
+     */
+    static int countMatching(EntityRules rules, List<Entity> entities) {
+        int count = 0;
+        // Iterate through entities and count undesired ones
+        for (Entity entity : entities) {
+            // Check if the entity matches the configured cleanup rules
+            if (rules.matches(entity)) {
+                count++;
             }
-        }); // End of synchronous task lambda
+        }
+        return count;
     }
 }
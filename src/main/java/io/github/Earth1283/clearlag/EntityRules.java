@@ -0,0 +1,190 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Tameable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A compiled set of rules deciding which entities a cleanup may remove.
+ * Rules are built once in {@link EntityCleanupPlugin#loadConfig()} and are immutable afterwards.
+ * The type check is a lookup in an array indexed by {@link EntityType#ordinal()}, and the more
+ * expensive checks (name, leash, tamed, persistence, age, nearby players) only run once it passes.
+ * Matching does not allocate per entity.
+ */
+public final class EntityRules {
+
+    private static final int TYPE_COUNT = EntityType.values().length;
+
+    // Scratch location reused for every entity checked on the same thread
+    private static final ThreadLocal<Location> SCRATCH_LOCATION = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    private final boolean[] types; // Indexed by EntityType ordinal
+    private final List<EntityType> typeList;
+    private final boolean skipNamed;
+    private final boolean skipLeashed;
+    private final boolean skipTamed;
+    private final boolean skipPersistent;
+    private final int minTicksLived;
+    private final double playerSafeRadius;
+    private final double playerSafeRadiusSquared;
+
+    private EntityRules(boolean[] types, boolean skipNamed, boolean skipLeashed, boolean skipTamed,
+                        boolean skipPersistent, int minTicksLived, double playerSafeRadius) {
+        this.types = types;
+        this.skipNamed = skipNamed;
+        this.skipLeashed = skipLeashed;
+        this.skipTamed = skipTamed;
+        this.skipPersistent = skipPersistent;
+        this.minTicksLived = minTicksLived;
+        this.playerSafeRadius = playerSafeRadius;
+        this.playerSafeRadiusSquared = playerSafeRadius * playerSafeRadius;
+
+        List<EntityType> list = new ArrayList<>();
+        for (EntityType type : EntityType.values()) {
+            if (types[type.ordinal()]) {
+                list.add(type);
+            }
+        }
+        this.typeList = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Compiles the rules found in a configuration section.
+     * The section holds an optional {@code entities-to-clear} list and an optional {@code cleanup-rules} section.
+     * Anything missing is inherited from {@code parent}, or falls back to the defaults when there is no parent.
+     *
+     * @param section The section to read (the config root, or a per-world section).
+     * @param parent  The rules to inherit missing values from, or null.
+     * @param where   Description of the section, used in warnings.
+     * @param logger  Logger for invalid values.
+     * @return The compiled rules.
+     */
+    public static EntityRules load(ConfigurationSection section, EntityRules parent, String where, Logger logger) {
+        boolean[] types;
+        if (section.isList("entities-to-clear")) {
+            types = new boolean[TYPE_COUNT];
+            List<String> entityTypeNames = section.getStringList("entities-to-clear");
+            for (String typeName : entityTypeNames) {
+                try {
+                    EntityType entityType = EntityType.valueOf(typeName.toUpperCase());
+                    types[entityType.ordinal()] = true;
+                } catch (IllegalArgumentException e) {
+                    logger.warning(where + " 中无效的实体类型: " + typeName + ". 已跳过.");
+                }
+            }
+        } else {
+            types = parent != null ? parent.types : new boolean[TYPE_COUNT];
+        }
+
+        // Every rule defaults to off, so a config.yml written before cleanup-rules existed removes exactly
+        // what it used to; the shipped config.yml turns the skips on for new installs
+        ConfigurationSection rules = section.getConfigurationSection("cleanup-rules");
+        boolean skipNamed = readBoolean(rules, "skip-named", parent != null && parent.skipNamed);
+        boolean skipLeashed = readBoolean(rules, "skip-leashed", parent != null && parent.skipLeashed);
+        boolean skipTamed = readBoolean(rules, "skip-tamed", parent != null && parent.skipTamed);
+        boolean skipPersistent = readBoolean(rules, "skip-persistent", parent != null && parent.skipPersistent);
+        int minTicksLived = isSet(rules, "min-ticks-lived")
+                ? rules.getInt("min-ticks-lived", 0) : (parent != null ? parent.minTicksLived : 0);
+        double playerSafeRadius = isSet(rules, "player-safe-radius")
+                ? rules.getDouble("player-safe-radius", 0) : (parent != null ? parent.playerSafeRadius : 0);
+
+        if (minTicksLived < 0) {
+            logger.warning(where + " 中的 min-ticks-lived 无效。使用默认值 0。");
+            minTicksLived = 0;
+        }
+        if (playerSafeRadius < 0) {
+            logger.warning(where + " 中的 player-safe-radius 无效。使用默认值 0。");
+            playerSafeRadius = 0;
+        }
+
+        return new EntityRules(types, skipNamed, skipLeashed, skipTamed, skipPersistent, minTicksLived, playerSafeRadius);
+    }
+
+    private static boolean readBoolean(ConfigurationSection section, String key, boolean fallback) {
+        return isSet(section, key) ? section.getBoolean(key, fallback) : fallback;
+    }
+
+    /**
+     * Checks whether a key is written in the file itself. The defaults Bukkit loads from the bundled
+     * config.yml are ignored, otherwise an old config would pick up the new installs' values.
+     */
+    private static boolean isSet(ConfigurationSection section, String key) {
+        return section != null && section.contains(key, true);
+    }
+
+    /**
+     * Checks only the entity type. Constant time.
+     *
+     * @param type The entity type.
+     * @return True if the type is configured for cleanup.
+     */
+    public boolean matchesType(EntityType type) {
+        return types[type.ordinal()];
+    }
+
+    /**
+     * Checks whether an entity may be removed by a cleanup.
+     * The cheap type check runs first; the remaining rules only run for entities of a listed type.
+     *
+     * @param entity The entity to check.
+     * @return True if the entity should be removed.
+     */
+    public boolean matches(Entity entity) {
+        if (!types[entity.getType().ordinal()]) {
+            return false;
+        }
+        if (minTicksLived > 0 && entity.getTicksLived() < minTicksLived) {
+            return false;
+        }
+        if (skipNamed && entity.customName() != null) {
+            return false;
+        }
+        if (skipTamed && entity instanceof Tameable tameable && tameable.isTamed()) {
+            return false;
+        }
+        if (entity instanceof LivingEntity living) {
+            if (skipLeashed && living.isLeashed()) {
+                return false;
+            }
+            if (skipPersistent && !living.getRemoveWhenFarAway()) {
+                return false;
+            }
+        }
+        // Most expensive check last
+        return playerSafeRadiusSquared <= 0 || !isNearPlayer(entity);
+    }
+
+    /**
+     * Gets the entity types configured for cleanup.
+     *
+     * @return An unmodifiable list of entity types.
+     */
+    public List<EntityType> getTypes() {
+        return typeList;
+    }
+
+    private boolean isNearPlayer(Entity entity) {
+        Location location = entity.getLocation(SCRATCH_LOCATION.get());
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        double[] positions = PlayerPositions.of(entity.getWorld());
+        for (int i = 0; i < positions.length; i += 3) {
+            double dx = positions[i] - x;
+            double dy = positions[i + 1] - y;
+            double dz = positions[i + 2] - z;
+            if (dx * dx + dy * dy + dz * dz <= playerSafeRadiusSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
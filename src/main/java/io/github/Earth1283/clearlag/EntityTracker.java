@@ -0,0 +1,252 @@
+package io.github.Earth1283.clearlag;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps live per-world and per-type entity counters, updated from Paper's entity add/remove events.
+ * Paper also fires these events when a chunk's entities are loaded or unloaded, so chunk load/unload
+ * is covered without listening to the chunk events separately.
+ * This makes the threshold check O(1) and lets it fire as soon as the limit is crossed.
+ * A periodic {@link #reconcile()} rescans every world to correct any drift.
+ * Only the entity type is tracked: the other {@link EntityRules} (names, leashes, age, nearby players)
+ * can change without an add/remove event, so they are applied by the cleanup itself.
+ * The counters are also used by {@link SpawnLimiter}; without tracked counting mode the tracker only
+ * counts and never triggers a cleanup.
+ * Only worlds on the global schedule add to the global total; a world with its own schedule is checked
+ * against its own threshold.
+ */
+public class EntityTracker implements Listener {
+
+    private static final int TYPE_COUNT = EntityType.values().length;
+
+    private final EntityCleanupPlugin plugin;
+    private final boolean drivesThreshold; // Whether this tracker is the counting mode, or only feeds the spawn limits
+    private final Map<UUID, WorldCounts> worlds = new ConcurrentHashMap<>();
+    private final AtomicInteger matchingTotal = new AtomicInteger(0);
+    // Cleared when a threshold cleanup is triggered, set again once the count drops back under the limit
+    private final AtomicBoolean armed = new AtomicBoolean(true);
+
+    /**
+     * Live counters for a single world.
+     */
+    private static final class WorldCounts {
+        private final AtomicIntegerArray byType = new AtomicIntegerArray(TYPE_COUNT);
+        private final AtomicInteger matching = new AtomicInteger(0);
+        // Only used by worlds with their own schedule, same as the global armed flag
+        private final AtomicBoolean armed = new AtomicBoolean(true);
+    }
+
+    /**
+     * @param plugin          The plugin.
+     * @param drivesThreshold True to trigger cleanups when the threshold is crossed (tracked counting mode),
+     *                        false to only keep the counters.
+     */
+    public EntityTracker(EntityCleanupPlugin plugin, boolean drivesThreshold) {
+        this.plugin = plugin;
+        this.drivesThreshold = drivesThreshold;
+    }
+
+    /**
+     * Recomputes the matching totals from the per-type counters using each world's current rules.
+     * Call this after the configuration has been (re)loaded.
+     */
+    public void refreshMatchingTypes() {
+        int total = 0;
+        for (Map.Entry<UUID, WorldCounts> entry : worlds.entrySet()) {
+            World world = Bukkit.getWorld(entry.getKey());
+            if (world == null) {
+                continue;
+            }
+            EntityRules rules = plugin.getRules(world);
+            WorldCounts counts = entry.getValue();
+            int matching = 0;
+            for (EntityType type : rules.getTypes()) {
+                matching += counts.byType.get(type.ordinal());
+            }
+            counts.matching.set(matching);
+            if (plugin.isSharedWorld(world)) {
+                total += matching;
+            }
+        }
+        matchingTotal.set(total);
+    }
+
+    /**
+     * Rescans every world and replaces the live counters with the exact values.
+     * Must be called on the main server thread (Paper) or the global region thread (Folia).
+     */
+    public void reconcile() {
+        Map<UUID, WorldCounts> fresh = new ConcurrentHashMap<>();
+        AtomicLong scanNanos = new AtomicLong(0);
+
+        plugin.getPluginScheduler().visitEntities((world, entities) -> {
+            long start = System.nanoTime();
+            EntityRules rules = plugin.getRules(world);
+            WorldCounts counts = fresh.computeIfAbsent(world.getUID(), uid -> new WorldCounts());
+            int matching = 0;
+            for (Entity entity : entities) {
+                EntityType type = entity.getType();
+                counts.byType.incrementAndGet(type.ordinal());
+                if (rules.matchesType(type)) {
+                    matching++;
+                }
+            }
+            counts.matching.addAndGet(matching);
+            scanNanos.addAndGet(System.nanoTime() - start);
+            return plugin.isSharedWorld(world) ? matching : 0;
+        }, total -> {
+            if (drivesThreshold) {
+                plugin.getMetrics().recordCounting(scanNanos.get());
+            }
+
+            for (World world : Bukkit.getWorlds()) {
+                WorldCounts counts = fresh.getOrDefault(world.getUID(), new WorldCounts());
+                WorldCounts previous = worlds.put(world.getUID(), counts);
+                // Keep the arm state, or a world that stays over its limit would fire again on every reconcile
+                if (previous != null) {
+                    counts.armed.set(previous.armed.get());
+                }
+            }
+
+            int previous = matchingTotal.getAndSet(total);
+            if (previous != total) {
+                plugin.getLogger().fine("实体计数校准: " + previous + " -> " + total);
+            }
+            checkThreshold(total);
+            for (World world : Bukkit.getWorlds()) {
+                WorldCounts counts = worlds.get(world.getUID());
+                if (counts != null) {
+                    checkWorldThreshold(world, counts);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the current number of entities that count towards the cleanup threshold, across all worlds.
+     *
+     * @return The live matching entity count.
+     */
+    public int getMatchingCount() {
+        return matchingTotal.get();
+    }
+
+    /**
+     * Gets the live count of a single entity type in a world.
+     *
+     * @param world The world.
+     * @param type  The entity type.
+     * @return The number of entities of that type currently in the world.
+     */
+    public int getCount(World world, EntityType type) {
+        WorldCounts counts = worlds.get(world.getUID());
+        return counts == null ? 0 : counts.byType.get(type.ordinal());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityAdd(EntityAddToWorldEvent event) {
+        Entity entity = event.getEntity();
+        World world = entity.getWorld();
+        WorldCounts counts = worlds.computeIfAbsent(world.getUID(), uid -> new WorldCounts());
+        EntityType type = entity.getType();
+        counts.byType.incrementAndGet(type.ordinal());
+
+        if (plugin.getRules(world).matchesType(type)) {
+            counts.matching.incrementAndGet();
+            if (plugin.isSharedWorld(world)) {
+                checkThreshold(matchingTotal.incrementAndGet());
+            } else {
+                checkWorldThreshold(world, counts);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemove(EntityRemoveFromWorldEvent event) {
+        Entity entity = event.getEntity();
+        World world = entity.getWorld();
+        WorldCounts counts = worlds.get(world.getUID());
+        if (counts == null) {
+            return; // World was never counted, nothing to subtract from
+        }
+        EntityType type = entity.getType();
+        counts.byType.decrementAndGet(type.ordinal());
+
+        if (plugin.getRules(world).matchesType(type)) {
+            counts.matching.decrementAndGet();
+            if (plugin.isSharedWorld(world)) {
+                checkThreshold(matchingTotal.decrementAndGet());
+            } else {
+                checkWorldThreshold(world, counts);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        WorldCounts counts = worlds.remove(event.getWorld().getUID());
+        if (counts != null && plugin.isSharedWorld(event.getWorld())) {
+            matchingTotal.addAndGet(-counts.matching.get());
+        }
+    }
+
+    /**
+     * Fires the threshold cleanup once when the count crosses the limit, and re-arms once it drops back.
+     *
+     * @param total The current matching entity count.
+     */
+    private void checkThreshold(int total) {
+        if (!drivesThreshold) {
+            return;
+        }
+        int maxEntities = plugin.getMaxEntitiesBeforeCleanup();
+        if (total > maxEntities) {
+            if (armed.compareAndSet(true, false)) {
+                plugin.handleThresholdExceeded(total);
+            }
+        } else {
+            armed.set(true);
+        }
+    }
+
+    /**
+     * Like {@link #checkThreshold(int)}, for a world with its own schedule.
+     *
+     * @param world  The world.
+     * @param counts The world's counters.
+     */
+    private void checkWorldThreshold(World world, WorldCounts counts) {
+        if (!drivesThreshold) {
+            return;
+        }
+        WorldSettings settings = plugin.getOwnSchedule(world);
+        if (settings == null) {
+            return; // Disabled world
+        }
+        int matching = counts.matching.get();
+        if (matching > plugin.getWorldMaxEntities(settings)) {
+            if (counts.armed.compareAndSet(true, false)) {
+                plugin.handleWorldThresholdExceeded(world, matching);
+            }
+        } else {
+            counts.armed.set(true);
+        }
+    }
+}
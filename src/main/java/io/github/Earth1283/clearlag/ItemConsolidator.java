@@ -0,0 +1,187 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ExperienceOrb;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges nearby identical dropped items and experience orbs into single entities before cleanup,
+ * so the entity count drops without destroying player loot. Only what remains over the per-chunk cap
+ * after merging is removed. Like any other entity, only items and orbs that pass the cleanup rules are
+ * touched; the caller filters them.
+ * Merged entities are reported separately from removed ones, since nothing is lost.
+ * Entities are bucketed per chunk and then into a grid of cells the size of the merge radius, so each
+ * entity is only compared against the entities in its own and neighbouring cells.
+ * Stateless: every call works on its own buckets, so batches may be consolidated on different threads.
+ */
+public class ItemConsolidator {
+
+    private final double radius;
+    private final double radiusSquared;
+    private final int chunkCap;
+
+    /**
+     * @param radius   Merge radius in blocks; must be positive, it is also the size of a grid cell.
+     * @param chunkCap How many items and orbs each chunk may keep after merging.
+     */
+    public ItemConsolidator(double radius, int chunkCap) {
+        this.radius = radius;
+        this.radiusSquared = radius * radius;
+        this.chunkCap = chunkCap;
+    }
+
+    /**
+     * Checks whether an entity is consolidated rather than removed outright when it matches the cleanup rules.
+     *
+     * @param entity The entity.
+     * @return True for dropped items and experience orbs.
+     */
+    public static boolean handles(Entity entity) {
+        return entity instanceof Item || entity instanceof ExperienceOrb;
+    }
+
+    /**
+     * Merges the given items and orbs, then removes whatever is still over the per-chunk cap.
+     * Must run on the thread that owns the entities.
+     *
+     * @param entities The items and orbs that matched the cleanup rules; anything else is ignored.
+     * @param run      Metrics of the cleanup run; merged and removed entities are counted by type separately.
+     *                 May be null, then nothing is counted.
+     * @param recorder Records the entities removed by the cap in the audit log, or null. Merged entities are
+     *                 not recorded, since nothing is lost.
+     * @return The number of entities removed by the cap. Merged entities are not included.
+     */
+    public int consolidate(List<Entity> entities, CleanupMetrics.Run run, AuditLog.Recorder recorder) {
+        Location location = new Location(null, 0, 0, 0);
+
+        // Bucket items and orbs per chunk
+        Map<Long, List<Entity>> chunks = new HashMap<>();
+        for (Entity entity : entities) {
+            if (handles(entity) && entity.isValid()) {
+                entity.getLocation(location);
+                long chunkKey = ChunkDensityIndex.key(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+                chunks.computeIfAbsent(chunkKey, key -> new ArrayList<>()).add(entity);
+            }
+        }
+
+        int removedCount = 0;
+        for (List<Entity> chunkEntities : chunks.values()) {
+            removedCount += consolidateChunk(chunkEntities, location, run, recorder);
+        }
+        return removedCount;
+    }
+
+    private int consolidateChunk(List<Entity> chunkEntities, Location location, CleanupMetrics.Run run, AuditLog.Recorder recorder) {
+        int removedCount = 0;
+        List<Entity> survivors = new ArrayList<>(chunkEntities.size());
+        Map<Long, List<Entity>> grid = new HashMap<>();
+
+        for (Entity entity : chunkEntities) {
+            entity.getLocation(location);
+            double x = location.getX();
+            double y = location.getY();
+            double z = location.getZ();
+            int cellX = (int) Math.floor(x / radius);
+            int cellY = (int) Math.floor(y / radius);
+            int cellZ = (int) Math.floor(z / radius);
+
+            if (mergeIntoNeighbour(entity, grid, cellX, cellY, cellZ, x, y, z, location)) {
+                entity.remove();
+                if (run != null) {
+                    run.mergedType(entity.getType());
+                }
+                continue;
+            }
+            grid.computeIfAbsent(cellKey(cellX, cellY, cellZ), key -> new ArrayList<>()).add(entity);
+            survivors.add(entity);
+        }
+
+        // Only what is left over the cap gets removed
+        for (int i = survivors.size() - 1; i >= chunkCap; i--) {
+            Entity entity = survivors.get(i);
+            if (entity.isValid()) {
+                if (recorder != null) {
+                    recorder.record(entity);
+                }
+                entity.remove();
+                if (run != null) {
+                    run.removedType(entity.getType());
+                }
+                removedCount++;
+            }
+        }
+        return removedCount;
+    }
+
+    /**
+     * Tries to merge an entity into a compatible entity already placed in the surrounding cells.
+     *
+     * @return True if the entity was fully merged and should be removed.
+     */
+    private boolean mergeIntoNeighbour(Entity entity, Map<Long, List<Entity>> grid, int cellX, int cellY, int cellZ,
+                                       double x, double y, double z, Location location) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    List<Entity> cell = grid.get(cellKey(cellX + dx, cellY + dy, cellZ + dz));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (Entity target : cell) {
+                        target.getLocation(location);
+                        double ox = location.getX() - x;
+                        double oy = location.getY() - y;
+                        double oz = location.getZ() - z;
+                        if (ox * ox + oy * oy + oz * oz <= radiusSquared && merge(entity, target)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves as much of {@code source} into {@code target} as fits.
+     *
+     * @return True if the source is now empty and should be removed.
+     */
+    private static boolean merge(Entity source, Entity target) {
+        if (source instanceof ExperienceOrb sourceOrb && target instanceof ExperienceOrb targetOrb) {
+            targetOrb.setExperience(targetOrb.getExperience() + sourceOrb.getExperience());
+            return true;
+        }
+        if (source instanceof Item sourceItem && target instanceof Item targetItem) {
+            ItemStack sourceStack = sourceItem.getItemStack();
+            ItemStack targetStack = targetItem.getItemStack();
+            if (!targetStack.isSimilar(sourceStack)) {
+                return false;
+            }
+            int space = targetStack.getMaxStackSize() - targetStack.getAmount();
+            if (space <= 0) {
+                return false;
+            }
+            int moved = Math.min(space, sourceStack.getAmount());
+            targetStack.setAmount(targetStack.getAmount() + moved);
+            targetItem.setItemStack(targetStack);
+            if (moved == sourceStack.getAmount()) {
+                return true;
+            }
+            sourceStack.setAmount(sourceStack.getAmount() - moved);
+            sourceItem.setItemStack(sourceStack);
+        }
+        return false;
+    }
+
+    private static long cellKey(int cellX, int cellY, int cellZ) {
+        return ((long) cellX & 0x1FFFFFL) | (((long) cellY & 0x1FFFFFL) << 21) | (((long) cellZ & 0x1FFFFFL) << 42);
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cleans the entities of a chunk when they are loaded, once per cleanup generation.
+ * A cleanup only sees loaded chunks, so a farm in a chunk that was unloaded at the time keeps its entities
+ * until a player comes back. Each completed cleanup of a world starts a new generation: the chunks loaded
+ * at that moment have just been swept, and every other chunk is swept the first time its entities load.
+ * A chunk that unloads and loads again within the same generation is not swept twice.
+ * A world is left alone until its first cleanup has finished, so chunks loading at startup or being
+ * explored before then are not swept: there is no earlier cleanup for them to have missed.
+ * <p>
+ * Only the chunks swept in the current generation are remembered, so memory is bounded by the chunks
+ * loaded between two cleanups rather than by every chunk ever visited.
+ */
+public class LazyChunkSweeper implements Listener {
+
+    /**
+     * Sweep state of one world. Guarded by itself.
+     */
+    private static final class WorldState {
+        private int generation;
+        private LongIntHashMap swept = new LongIntHashMap(); // Chunk key to the generation it was swept in
+    }
+
+    private final EntityCleanupPlugin plugin;
+    private final Map<UUID, WorldState> worlds = new ConcurrentHashMap<>();
+    // Chunk loads are not cleanup runs, so they are counted here rather than in the run metrics
+    private final AtomicLong sweptChunks = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    public LazyChunkSweeper(EntityCleanupPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        List<Entity> entities = event.getEntities();
+        if (entities.isEmpty()) {
+            return;
+        }
+        Chunk chunk = event.getChunk();
+        World world = chunk.getWorld();
+        if (!plugin.isCleanupEnabled(world)) {
+            return;
+        }
+
+        // Only created by advance(), so a world that hasn't been cleaned yet has no state
+        WorldState state = worlds.get(world.getUID());
+        if (state == null) {
+            return;
+        }
+        long key = ChunkDensityIndex.key(chunk.getX(), chunk.getZ());
+        synchronized (state) {
+            // Slots start at 0, so store the generation plus one
+            if (state.swept.get(key) == state.generation + 1) {
+                return; // Already swept since the last cleanup of this world
+            }
+            state.swept.put(key, state.generation + 1);
+        }
+
+        // Runs on the thread that owns the chunk, so its entities can be removed right away
+        // Same as the regular cleanup: density mode thins the chunk down to the cap and doesn't consolidate
+        boolean density = plugin.getCleanupMode() == CleanupMode.DENSITY;
+        int keep = density ? plugin.getDensityChunkCap() : 0;
+        AuditLog auditLog = plugin.getAuditLog();
+        // The event's list may be live; removing entities must not change what is being iterated
+        int count = CleanupTask.sweep(plugin.getRules(world), density ? null : plugin.getItemConsolidator(), null,
+                auditLog != null ? auditLog.recorder(CleanupTrigger.CHUNK_LOAD) : null, world, new ArrayList<>(entities), keep);
+        sweptChunks.incrementAndGet();
+        removed.addAndGet(count);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        worlds.remove(event.getWorld().getUID());
+    }
+
+    /**
+     * Starts a new generation for worlds that were just cleaned. Their chunks with loaded entities count as swept;
+     * every other chunk is swept when its entities next load.
+     * Must be called on the main server thread (Paper) or the global region thread (Folia).
+     *
+     * @param cleaned The worlds the cleanup covered.
+     */
+    public void advance(List<World> cleaned) {
+        LoadedChunkIndex index = plugin.getPluginScheduler().getLoadedChunkIndex();
+        for (World world : cleaned) {
+            // A chunk whose entities haven't loaded yet wasn't swept; its load event will do it
+            long[] loaded = index != null ? index.getChunks(world) : entitiesLoaded(world);
+            WorldState state = worlds.computeIfAbsent(world.getUID(), uid -> new WorldState());
+            synchronized (state) {
+                state.generation++;
+                // Entries of older generations are stale anyway; a fresh map also gives back the capacity
+                state.swept = new LongIntHashMap(loaded.length);
+                for (long key : loaded) {
+                    state.swept.put(key, state.generation + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the chunks with loaded entities straight from the world. Main thread only, so Paper only;
+     * on Folia the {@link LoadedChunkIndex} is used instead.
+     */
+    private static long[] entitiesLoaded(World world) {
+        Chunk[] chunks = world.getLoadedChunks();
+        long[] keys = new long[chunks.length];
+        int count = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk.isEntitiesLoaded()) {
+                keys[count++] = ChunkDensityIndex.key(chunk.getX(), chunk.getZ());
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * Gets the number of chunks swept as they loaded.
+     *
+     * @return The count since startup.
+     */
+    public long getSweptChunks() {
+        return sweptChunks.get();
+    }
+
+    /**
+     * Gets the number of entities removed from chunks as they loaded.
+     *
+     * @return The count since startup.
+     */
+    public long getRemovedCount() {
+        return removed.get();
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The chunks of each world whose entities are loaded, keyed by packed chunk coordinates.
+ * On Folia {@link World#getLoadedChunks()} reads chunk state owned by every region, so it may not be called
+ * from the global region thread. This index is kept from the entity load/unload events instead, which fire
+ * on the thread that owns the chunk, and can be read from any thread.
+ */
+public class LoadedChunkIndex implements Listener {
+
+    private final Map<UUID, Set<Long>> worlds = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the chunks already loaded when the plugin starts.
+     * Must be called from {@code onEnable}, before the regions start ticking.
+     *
+     * @param loaded The worlds loaded at startup.
+     */
+    public void seed(List<World> loaded) {
+        for (World world : loaded) {
+            Set<Long> chunks = chunks(world);
+            for (Chunk chunk : world.getLoadedChunks()) {
+                if (chunk.isEntitiesLoaded()) {
+                    chunks.add(ChunkDensityIndex.key(chunk.getX(), chunk.getZ()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the chunks of a world whose entities are loaded. The chunks may unload at any time,
+     * so check again on the thread that owns each one before touching it.
+     *
+     * @param world The world.
+     * @return A snapshot of the packed chunk keys.
+     */
+    public long[] getChunks(World world) {
+        Set<Long> chunks = worlds.get(world.getUID());
+        if (chunks == null) {
+            return new long[0];
+        }
+        List<Long> snapshot = new ArrayList<>(chunks);
+        long[] keys = new long[snapshot.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = snapshot.get(i);
+        }
+        return keys;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        chunks(chunk.getWorld()).add(ChunkDensityIndex.key(chunk.getX(), chunk.getZ()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesUnload(EntitiesUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        Set<Long> chunks = worlds.get(chunk.getWorld().getUID());
+        if (chunks != null) {
+            chunks.remove(ChunkDensityIndex.key(chunk.getX(), chunk.getZ()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        worlds.remove(event.getWorld().getUID());
+    }
+
+    private Set<Long> chunks(World world) {
+        return worlds.computeIfAbsent(world.getUID(), uid -> ConcurrentHashMap.newKeySet());
+    }
+}
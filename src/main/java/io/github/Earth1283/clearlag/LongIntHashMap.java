@@ -0,0 +1,213 @@
+package io.github.Earth1283.clearlag;
+
+import java.util.Arrays;
+
+/**
+ * A small open-addressing hash map from primitive {@code long} keys to {@code int} values.
+ * Used for per-chunk counters keyed by packed chunk coordinates, without boxing a Long and an Integer
+ * for every chunk. Uses linear probing with backward-shift deletion. Not thread-safe.
+ */
+public final class LongIntHashMap {
+
+    /**
+     * Receives the entries of the map during {@link #forEach(EntryConsumer)}.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // Key 0 marks an empty slot; an actual 0 key is stored separately
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    public LongIntHashMap() {
+        this(64);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Gets the value for a key.
+     *
+     * @param key The key.
+     * @return The value, or 0 if the key is not present.
+     */
+    public int get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : 0;
+        }
+        int slot = mix(key) & mask;
+        long current;
+        while ((current = keys[slot]) != 0) {
+            if (current == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Adds a delta to the value of a key, inserting it with the delta if it is absent.
+     * A key whose value drops to zero or below is removed, so the map only holds positive counts.
+     *
+     * @param key   The key.
+     * @param delta The amount to add.
+     * @return The new value, or 0 if the key was removed.
+     */
+    public int addTo(long key, int delta) {
+        if (key == 0) {
+            int updated = (hasZeroKey ? zeroValue : 0) + delta;
+            if (updated <= 0) {
+                if (hasZeroKey) {
+                    hasZeroKey = false;
+                    size--;
+                }
+                zeroValue = 0;
+                return 0;
+            }
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = updated;
+            return updated;
+        }
+
+        int slot = mix(key) & mask;
+        long current;
+        while ((current = keys[slot]) != 0) {
+            if (current == key) {
+                int updated = values[slot] + delta;
+                if (updated <= 0) {
+                    removeAt(slot);
+                    return 0;
+                }
+                values[slot] = updated;
+                return updated;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (delta <= 0) {
+            return 0; // Nothing to subtract from
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return delta;
+    }
+
+    /**
+     * Sets the value of a key, removing it if the value is zero or below.
+     *
+     * @param key   The key.
+     * @param value The new value.
+     */
+    public void put(long key, int value) {
+        addTo(key, value - get(key));
+    }
+
+    /**
+     * Gets the number of keys in the map.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every entry, keeping the allocated capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = 0;
+    }
+
+    /**
+     * Visits every entry. The map must not be modified during the visit.
+     *
+     * @param consumer Receives each key and value.
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0L, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void removeAt(int slot) {
+        size--;
+        // Shift following entries back so that probe sequences stay unbroken
+        int last;
+        while (true) {
+            last = slot;
+            slot = (slot + 1) & mask;
+            long current;
+            while (true) {
+                if ((current = keys[slot]) == 0) {
+                    keys[last] = 0;
+                    return;
+                }
+                int home = mix(current) & mask;
+                // Move the entry if its home slot is not between the hole and its current slot
+                if (last <= slot ? (last >= home || home > slot) : (last >= home && home > slot)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[last] = current;
+            values[last] = values[slot];
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = mix(key) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
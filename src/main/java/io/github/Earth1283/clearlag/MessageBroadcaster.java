@@ -0,0 +1,149 @@
+package io.github.Earth1283.clearlag;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends cleanup messages to the players holding the message permission.
+ * The permitted players are kept in a subscriber set, updated on join, quit and world change and by a
+ * periodic {@link #refresh()} for permission changes, so a broadcast never checks every online player.
+ * Each message is turned into a component once and the same component is sent to every subscriber.
+ * Threshold warnings are coalesced: within a window only the first one is sent right away, and the
+ * latest of the ones that followed is sent once when the window ends. Each window has a generation number,
+ * so a close task left over from an earlier window (ticks can lag behind the wall clock) does nothing.
+ */
+public class MessageBroadcaster implements Listener {
+
+    private final EntityCleanupPlugin plugin;
+    private final String permission;
+    private final long coalesceWindowMillis;
+    // Join and quit fire on region threads on Folia
+    private final Set<Player> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Coalescing state, guarded by this
+    private long windowStartMillis;
+    private boolean windowOpen;
+    private long windowGeneration; // Bumped whenever a window opens; a close task only acts on its own window
+    private String pendingWarning; // Latest warning held back in the current window, or null
+
+    public MessageBroadcaster(EntityCleanupPlugin plugin, String permission, long coalesceWindowMillis) {
+        this.plugin = plugin;
+        this.permission = permission;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+    }
+
+    /**
+     * Rebuilds the subscriber set from the online players, to pick up permission changes.
+     * Must be called on the main server thread (Paper) or the global region thread (Folia).
+     */
+    public void refresh() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            update(player);
+        }
+        subscribers.removeIf(player -> !player.isOnline());
+    }
+
+    /**
+     * Sends a message to every subscriber, on the main thread. Runs straight away when already on it.
+     *
+     * @param message The message, with color codes already translated.
+     */
+    public void broadcast(String message) {
+        BaseComponent component = new TextComponent(message);
+        plugin.getPluginScheduler().runGlobalNow(() -> {
+            for (Player player : subscribers) {
+                // Use Spigot's sendMessage method which handles TextComponents
+                player.spigot().sendMessage(component);
+            }
+        });
+    }
+
+    /**
+     * Sends a threshold warning, coalescing repeated warnings within the window into one message.
+     *
+     * @param message The message, with color codes already translated.
+     */
+    public void broadcastWarning(String message) {
+        if (coalesceWindowMillis <= 0) {
+            broadcast(message);
+            return;
+        }
+
+        long generation;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (windowOpen && now - windowStartMillis < coalesceWindowMillis) {
+                // Hold it back; only the latest one is sent when the window closes
+                pendingWarning = message;
+                return;
+            }
+            // May replace a window whose close task is late; that task no longer matches and does nothing.
+            // This warning is newer than any held back by that window, so it supersedes it.
+            windowOpen = true;
+            windowStartMillis = now;
+            pendingWarning = null;
+            generation = ++windowGeneration;
+        }
+        broadcast(message);
+        scheduleClose(generation);
+    }
+
+    private void scheduleClose(long generation) {
+        plugin.getPluginScheduler().runGlobalLater(() -> closeWindow(generation), Math.max(1L, coalesceWindowMillis / 50L));
+    }
+
+    private void closeWindow(long generation) {
+        String message;
+        synchronized (this) {
+            if (generation != windowGeneration) {
+                return; // A newer window has opened since; its own close task handles it
+            }
+            message = pendingWarning;
+            pendingWarning = null;
+            if (message == null) {
+                windowOpen = false;
+                return;
+            }
+            // Sending the held-back warning starts a new window, so there is never more than one per window
+            windowStartMillis = System.currentTimeMillis();
+            generation = ++windowGeneration;
+        }
+        broadcast(message);
+        scheduleClose(generation);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        update(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        subscribers.remove(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChange(PlayerChangedWorldEvent event) {
+        // Permission plugins may grant permissions per world
+        update(event.getPlayer());
+    }
+
+    private void update(Player player) {
+        if (player.hasPermission(permission)) {
+            subscribers.add(player);
+        } else {
+            subscribers.remove(player);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory catalog of the messages in messages.yml, compiled into {@link MessageTemplate}s.
+ * The file is parsed once per (re)load and the whole catalog is swapped atomically, so lookups never
+ * touch the disk. Optionally a background thread watches the file and reloads it when it changes.
+ */
+public class MessageCatalog {
+
+    private static final long RELOAD_SETTLE_MILLIS = 200; // Let the editor finish writing before reloading
+
+    private final File file;
+    private final Logger logger;
+    private volatile Map<String, MessageTemplate> templates = Collections.emptyMap();
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public MessageCatalog(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Parses the file and swaps in the new templates. Safe to call from any thread.
+     * If the file cannot be read, the previous templates are kept.
+     *
+     * @return True if the file was loaded.
+     */
+    public boolean reload() {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "无法加载 " + file.getName() + ": " + e.getMessage(), e);
+            return false;
+        }
+
+        Map<String, MessageTemplate> compiled = new HashMap<>();
+        for (String key : config.getKeys(true)) {
+            if (config.isConfigurationSection(key)) {
+                continue;
+            }
+            String value = config.getString(key);
+            if (value != null) {
+                compiled.put(key, MessageTemplate.compile(value));
+            }
+        }
+        this.templates = compiled; // Single volatile write, readers see either the old or the new catalog
+        return true;
+    }
+
+    /**
+     * Gets the template for a key.
+     *
+     * @param key The full key, e.g. {@code messages.post-cleanup}.
+     * @return The template, or a template describing the missing key.
+     */
+    public MessageTemplate get(String key) {
+        MessageTemplate template = templates.get(key);
+        if (template == null) {
+            template = MessageTemplate.compile("&c消息键 '" + key + "' 未在 " + file.getName() + " 中找到.");
+        }
+        return template;
+    }
+
+    /**
+     * Starts a daemon thread that reloads the catalog whenever the file is modified on disk.
+     */
+    public void startWatching() {
+        if (watchThread != null) {
+            return;
+        }
+        Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            logger.warning("无法监听 " + file.getName() + " 的变化: " + e.getMessage());
+            return;
+        }
+
+        watchThread = new Thread(this::watchLoop, "clearlag-message-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /**
+     * Stops the file watcher, if it is running.
+     */
+    public void stopWatching() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+                // Shutting down anyway
+            }
+            watchService = null;
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+    }
+
+    private void watchLoop() {
+        WatchService service = this.watchService;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path path && path.getFileName().toString().equals(file.getName())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if (changed) {
+                    Thread.sleep(RELOAD_SETTLE_MILLIS);
+                    // Drop the duplicate events most editors produce for a single save
+                    WatchKey pending = service.poll();
+                    if (pending != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    if (reload()) {
+                        logger.info(file.getName() + " 已变更，已自动重新加载。");
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher stopped
+        }
+    }
+}
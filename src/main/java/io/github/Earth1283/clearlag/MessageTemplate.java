@@ -0,0 +1,111 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message from messages.yml with its color codes already translated and its {@code %count%} and
+ * {@code %limit%} placeholders split out, so rendering is a single pass over precomputed segments
+ * instead of regex or a chain of {@link String#replace} calls.
+ */
+public final class MessageTemplate {
+
+    private static final String COUNT_PLACEHOLDER = "%count%";
+    private static final String LIMIT_PLACEHOLDER = "%limit%";
+
+    private static final int SLOT_COUNT = 0;
+    private static final int SLOT_LIMIT = 1;
+
+    private final String text; // Fully colorized text with the placeholders left in place
+    private final String[] literals; // Text between placeholders, always one more than slots
+    private final int[] slots; // Which value goes between each pair of literals
+
+    private MessageTemplate(String text, String[] literals, int[] slots) {
+        this.text = text;
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Compiles a raw message: translates '&' color codes and locates the placeholders.
+     *
+     * @param raw The message as written in messages.yml.
+     * @return The compiled template.
+     */
+    public static MessageTemplate compile(String raw) {
+        String text = ChatColor.translateAlternateColorCodes('&', raw);
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int start = 0;
+        int i = text.indexOf('%');
+        while (i >= 0) {
+            int slot = -1;
+            int length = 0;
+            if (text.startsWith(COUNT_PLACEHOLDER, i)) {
+                slot = SLOT_COUNT;
+                length = COUNT_PLACEHOLDER.length();
+            } else if (text.startsWith(LIMIT_PLACEHOLDER, i)) {
+                slot = SLOT_LIMIT;
+                length = LIMIT_PLACEHOLDER.length();
+            }
+
+            if (slot >= 0) {
+                literals.add(text.substring(start, i));
+                slots.add(slot);
+                start = i + length;
+                i = text.indexOf('%', start);
+            } else {
+                i = text.indexOf('%', i + 1); // Not a known placeholder, keep it as literal text
+            }
+        }
+        literals.add(text.substring(start));
+
+        int[] slotArray = new int[slots.size()];
+        for (int j = 0; j < slotArray.length; j++) {
+            slotArray[j] = slots.get(j);
+        }
+        return new MessageTemplate(text, literals.toArray(new String[0]), slotArray);
+    }
+
+    /**
+     * Gets the colorized message without substituting any placeholders.
+     *
+     * @return The message text.
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * Renders the message with {@code %count%} substituted.
+     *
+     * @param count The value for {@code %count%}.
+     * @return The rendered message.
+     */
+    public String render(long count) {
+        return render(count, 0);
+    }
+
+    /**
+     * Renders the message with {@code %count%} and {@code %limit%} substituted.
+     *
+     * @param count The value for {@code %count%}.
+     * @param limit The value for {@code %limit%}.
+     * @return The rendered message.
+     */
+    public String render(long count, long limit) {
+        if (slots.length == 0) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]);
+            builder.append(slots[i] == SLOT_COUNT ? count : limit);
+        }
+        builder.append(literals[slots.length]);
+        return builder.toString();
+    }
+}
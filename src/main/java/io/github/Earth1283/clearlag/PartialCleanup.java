@@ -0,0 +1,327 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Removes only as many matching entities as it takes to bring their count down to a low-water mark,
+ * instead of every one of them, so crossing the threshold by one mob doesn't wipe the whole population.
+ * A first pass counts the matching entities. A second pass scores each of them by the {@link Policy} and keeps
+ * the highest scores in a heap bounded by the number to remove, so selection costs O(n log k) and memory
+ * grows with what is removed rather than with what is loaded. The victims are then removed on the threads
+ * that own them.
+ */
+public class PartialCleanup {
+
+    /**
+     * Which entities are removed first.
+     */
+    public enum Policy {
+        /** Entities that have lived the longest ({@link Entity#getTicksLived()}). */
+        OLDEST,
+        /** Entities farthest from the nearest player in their world; worlds without players go first. */
+        FARTHEST,
+        /** Entities in the chunks holding the most matching entities, oldest first within a chunk. */
+        DENSEST,
+        /** Entities in the chunks with the highest recent spawn rate, oldest first within a chunk. */
+        HOTSPOT;
+
+        /**
+         * Parses a config value, case-insensitively.
+         *
+         * @param value The value from config.yml.
+         * @return The matching policy, or null if the value is not recognised.
+         */
+        public static Policy parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            for (Policy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value.trim())) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Scratch location reused for every entity scored on the same thread
+    private static final ThreadLocal<Location> SCRATCH_LOCATION = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    private final EntityCleanupPlugin plugin;
+    private final List<World> worlds;
+    private final int target;
+    private final Policy policy;
+    private final SpawnHotspotTracker spawnRates; // Only used by the HOTSPOT policy
+    private final CleanupMetrics.Run metricsRun;
+    private final AuditLog.Recorder auditRecorder; // Null when the audit log is disabled
+    private final IntConsumer onComplete; // Receives the number of removed entities
+
+    private VictimHeap victims; // Best victims across all batches, guarded by itself
+    private Map<String, double[]> playerPositions; // x, y, z triples per world name, for the FARTHEST policy
+
+    /**
+     * @param plugin        The plugin.
+     * @param worlds        The worlds to clean.
+     * @param target        How many matching entities to leave across all of the worlds.
+     * @param policy        Which entities are removed first.
+     * @param spawnRates    Spawn rates for the HOTSPOT policy, or null.
+     * @param metricsRun    Metrics of the cleanup run.
+     * @param auditRecorder Records each removal, or null.
+     * @param onComplete    Receives the number of removed entities once they are all gone.
+     */
+    public PartialCleanup(EntityCleanupPlugin plugin, List<World> worlds, int target, Policy policy,
+                          SpawnHotspotTracker spawnRates, CleanupMetrics.Run metricsRun, AuditLog.Recorder auditRecorder, IntConsumer onComplete) {
+        this.plugin = plugin;
+        this.worlds = worlds;
+        this.target = target;
+        this.policy = policy;
+        this.spawnRates = spawnRates;
+        this.metricsRun = metricsRun;
+        this.auditRecorder = auditRecorder;
+        this.onComplete = onComplete;
+    }
+
+    /**
+     * Starts the cleanup. Must be called on the main thread (Paper) or the global region thread (Folia).
+     */
+    public void start() {
+        plugin.getPluginScheduler().visitEntities(worlds,
+                (world, entities) -> EntityCountingTask.countMatching(plugin.getRules(world), entities), this::select);
+    }
+
+    private void select(int matching) {
+        int excess = matching - target;
+        if (excess <= 0) {
+            onComplete.accept(0);
+            return;
+        }
+
+        if (policy == Policy.FARTHEST) {
+            playerPositions = snapshotPlayers();
+        }
+        victims = new VictimHeap(excess);
+        plugin.getPluginScheduler().visitEntities(worlds, this::score, ignored -> evict());
+    }
+
+    /**
+     * Scores one batch into a local heap, then merges it into the shared one, so the lock is taken once per batch.
+     */
+    private int score(World world, List<Entity> entities) {
+        long scanStart = System.nanoTime();
+        EntityRules rules = plugin.getRules(world);
+        VictimHeap local = new VictimHeap(victims.limit);
+        Location location = SCRATCH_LOCATION.get();
+
+        // A chunk's entities are always in the same batch, so per-batch chunk counts are complete
+        Map<Long, int[]> chunkCounts = null;
+        if (policy == Policy.DENSEST) {
+            chunkCounts = new HashMap<>();
+            for (Entity entity : entities) {
+                if (rules.matches(entity)) {
+                    entity.getLocation(location);
+                    chunkCounts.computeIfAbsent(ChunkDensityIndex.key(location.getBlockX() >> 4, location.getBlockZ() >> 4),
+                            key -> new int[1])[0]++;
+                }
+            }
+        }
+        double[] players = playerPositions != null ? playerPositions.get(world.getName()) : null;
+        // Spawn rate per chunk in tenths plus one, looked up once per chunk (0 means not looked up yet)
+        LongIntHashMap chunkRates = policy == Policy.HOTSPOT ? new LongIntHashMap() : null;
+
+        for (Entity entity : entities) {
+            if (!rules.matches(entity)) {
+                continue;
+            }
+            long score;
+            switch (policy) {
+                case FARTHEST:
+                    score = nearestPlayerDistanceSquared(entity.getLocation(location), players);
+                    break;
+                case DENSEST:
+                    entity.getLocation(location);
+                    int inChunk = chunkCounts.get(ChunkDensityIndex.key(location.getBlockX() >> 4, location.getBlockZ() >> 4))[0];
+                    score = rankThenAge(inChunk, entity.getTicksLived());
+                    break;
+                case HOTSPOT:
+                    entity.getLocation(location);
+                    int chunkX = location.getBlockX() >> 4;
+                    int chunkZ = location.getBlockZ() >> 4;
+                    long chunkKey = ChunkDensityIndex.key(chunkX, chunkZ);
+                    int rate = chunkRates.get(chunkKey);
+                    if (rate == 0) {
+                        rate = (int) Math.min(Integer.MAX_VALUE - 1, spawnRates.getSpawnsPerMinute(world, chunkX, chunkZ) * 10) + 1;
+                        chunkRates.put(chunkKey, rate);
+                    }
+                    score = rankThenAge(rate, entity.getTicksLived());
+                    break;
+                case OLDEST:
+                default:
+                    score = entity.getTicksLived();
+                    break;
+            }
+            local.offer(score, entity);
+        }
+
+        synchronized (victims) {
+            victims.addAll(local);
+        }
+        metricsRun.batch(world, entities.size(), 0, System.nanoTime() - scanStart, 0);
+        return 0;
+    }
+
+    private void evict() {
+        List<Entity> selected;
+        synchronized (victims) {
+            selected = victims.entities();
+        }
+        plugin.getPluginScheduler().forEachEntity(selected, this::remove, onComplete);
+    }
+
+    private int remove(Entity entity) {
+        // It may have died or been removed since it was picked
+        if (!entity.isValid()) {
+            return 0;
+        }
+        long removeStart = System.nanoTime();
+        if (auditRecorder != null) {
+            auditRecorder.record(entity);
+        }
+        entity.remove();
+        metricsRun.removedType(entity.getType());
+        metricsRun.batch(entity.getWorld(), 0, 1, 0, System.nanoTime() - removeStart);
+        return 1;
+    }
+
+    /**
+     * Takes the player positions up front, so scoring doesn't look them up once per batch.
+     */
+    private Map<String, double[]> snapshotPlayers() {
+        Map<String, double[]> positions = new HashMap<>();
+        for (World world : worlds) {
+            positions.put(world.getName(), PlayerPositions.of(world));
+        }
+        return positions;
+    }
+
+    /**
+     * Scores by a per-chunk rank first and by age within the same rank: the rank in the high half, the ticks
+     * lived in the low half.
+     */
+    static long rankThenAge(int rank, int ticksLived) {
+        return ((long) rank << 32) | ticksLived;
+    }
+
+    /**
+     * Scores by the distance to the nearest player, so the farthest entities score highest.
+     *
+     * @param players x, y, z of each player in the entity's world, or null.
+     * @return The squared distance, or {@link Long#MAX_VALUE} when there are no players.
+     */
+    static long nearestPlayerDistanceSquared(Location location, double[] players) {
+        if (players == null || players.length == 0) {
+            return Long.MAX_VALUE;
+        }
+        double nearest = Double.MAX_VALUE;
+        for (int i = 0; i < players.length; i += 3) {
+            double dx = location.getX() - players[i];
+            double dy = location.getY() - players[i + 1];
+            double dz = location.getZ() - players[i + 2];
+            nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+        }
+        return (long) nearest;
+    }
+
+    /**
+     * Keeps the entities with the highest scores, at most {@code limit} of them. A min-heap on the score:
+     * the root is the weakest victim kept so far and is the one replaced by a better candidate.
+     * The arrays grow on demand, so a batch with few candidates doesn't allocate the full limit.
+     */
+    static final class VictimHeap {
+        private final int limit;
+        private long[] scores;
+        private Entity[] entities;
+        private int size;
+
+        VictimHeap(int limit) {
+            this.limit = limit;
+            int initial = Math.min(limit, 16);
+            this.scores = new long[initial];
+            this.entities = new Entity[initial];
+        }
+
+        void offer(long score, Entity entity) {
+            if (size < limit) {
+                if (size == scores.length) {
+                    int capacity = (int) Math.min(limit, scores.length * 2L);
+                    scores = Arrays.copyOf(scores, capacity);
+                    entities = Arrays.copyOf(entities, capacity);
+                }
+                scores[size] = score;
+                entities[size] = entity;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                scores[0] = score;
+                entities[0] = entity;
+                siftDown(0);
+            }
+        }
+
+        void addAll(VictimHeap other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.scores[i], other.entities[i]);
+            }
+        }
+
+        List<Entity> entities() {
+            return new ArrayList<>(Arrays.asList(entities).subList(0, size));
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (scores[parent] <= scores[index]) {
+                    return;
+                }
+                swap(index, parent);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int smallest = index;
+                int left = index * 2 + 1;
+                int right = left + 1;
+                if (left < size && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && scores[right] < scores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == index) {
+                    return;
+                }
+                swap(index, smallest);
+                index = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+            Entity entity = entities[a];
+            entities[a] = entities[b];
+            entities[b] = entity;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flattened x/y/z coordinates of the players in each world, for the checks that need to know where players are.
+ * On Paper every caller is on the main thread, so the positions are read from the players and cached for the
+ * current tick. On Folia a player may only be read on the thread of the region holding it, while entities are
+ * checked on their own region threads and victims are picked on the global one. There each player publishes
+ * its own position from its entity scheduler every few ticks, and callers get the latest published positions.
+ */
+public final class PlayerPositions implements Listener {
+
+    private static final long PUBLISH_PERIOD_TICKS = 5L;
+
+    // Positions per world, rebuilt at most once per tick (Paper) or per published change (Folia)
+    private static final Map<UUID, Snapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+    // Last published position per player; null unless positions are published (Folia)
+    private static volatile Map<UUID, Published> published;
+    private static final AtomicLong VERSION = new AtomicLong(); // Bumped on every published change
+
+    private final EntityCleanupPlugin plugin;
+
+    private static final class Snapshot {
+        private final long stamp; // Tick (Paper) or version (Folia) the coordinates were built at
+        private final double[] coordinates;
+
+        private Snapshot(long stamp, double[] coordinates) {
+            this.stamp = stamp;
+            this.coordinates = coordinates;
+        }
+    }
+
+    private static final class Published {
+        private final UUID world;
+        private final double x;
+        private final double y;
+        private final double z;
+
+        private Published(UUID world, double x, double y, double z) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    /**
+     * Switches to published positions. Only needed on Folia; register the instance as a listener afterwards.
+     *
+     * @param plugin The plugin, which owns the publishing tasks.
+     */
+    public PlayerPositions(EntityCleanupPlugin plugin) {
+        this.plugin = plugin;
+        published = new ConcurrentHashMap<>();
+        SNAPSHOTS.clear();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            startPublishing(player);
+        }
+    }
+
+    /**
+     * Goes back to reading the players directly. Their publishing tasks end with the plugin.
+     */
+    public void stop() {
+        published = null;
+        SNAPSHOTS.clear();
+    }
+
+    /**
+     * Gets the positions of the players in a world. Safe to call from any thread.
+     *
+     * @param world The world.
+     * @return x, y, z triples, one per player. Must not be modified.
+     */
+    public static double[] of(World world) {
+        Map<UUID, Published> source = published;
+        long stamp = source != null ? VERSION.get() : Bukkit.getCurrentTick();
+        Snapshot cached = SNAPSHOTS.get(world.getUID());
+        if (cached != null && cached.stamp == stamp) {
+            return cached.coordinates;
+        }
+
+        double[] coordinates = source != null ? collect(world.getUID(), source) : read(world);
+        SNAPSHOTS.put(world.getUID(), new Snapshot(stamp, coordinates));
+        return coordinates;
+    }
+
+    private static double[] read(World world) {
+        List<Player> players = world.getPlayers();
+        double[] coordinates = new double[players.size() * 3];
+        Location location = new Location(null, 0, 0, 0);
+        int i = 0;
+        for (Player player : players) {
+            player.getLocation(location);
+            coordinates[i++] = location.getX();
+            coordinates[i++] = location.getY();
+            coordinates[i++] = location.getZ();
+        }
+        return coordinates;
+    }
+
+    private static double[] collect(UUID world, Map<UUID, Published> source) {
+        int count = 0;
+        for (Published position : source.values()) {
+            if (position.world.equals(world)) {
+                count++;
+            }
+        }
+        double[] coordinates = new double[count * 3];
+        int i = 0;
+        for (Published position : source.values()) {
+            // A player may have changed worlds or published again since the first pass
+            if (position.world.equals(world) && i < coordinates.length) {
+                coordinates[i++] = position.x;
+                coordinates[i++] = position.y;
+                coordinates[i++] = position.z;
+            }
+        }
+        return i == coordinates.length ? coordinates : Arrays.copyOf(coordinates, i);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        startPublishing(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        forget(event.getPlayer().getUniqueId());
+    }
+
+    private void startPublishing(Player player) {
+        UUID id = player.getUniqueId();
+        // Runs on the player's own region thread; retired once the player is removed
+        player.getScheduler().runAtFixedRate(plugin, task -> publish(player), () -> forget(id), 1L, PUBLISH_PERIOD_TICKS);
+    }
+
+    private static void publish(Player player) {
+        Map<UUID, Published> target = published;
+        if (target == null) {
+            return;
+        }
+        Location location = player.getLocation();
+        target.put(player.getUniqueId(), new Published(location.getWorld().getUID(), location.getX(), location.getY(), location.getZ()));
+        VERSION.incrementAndGet();
+    }
+
+    private static void forget(UUID player) {
+        Map<UUID, Published> target = published;
+        if (target != null && target.remove(player) != null) {
+            VERSION.incrementAndGet();
+        }
+    }
+}
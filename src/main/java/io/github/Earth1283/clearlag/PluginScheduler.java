@@ -0,0 +1,401 @@
+package io.github.Earth1283.clearlag;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Scheduling layer that hides the difference between Paper and Folia.
+ * On Paper everything keeps running on the single main thread through the Bukkit scheduler.
+ * On Folia (region threading) timers run on the global region or async scheduler, and entity work is
+ * split per region and runs on the thread that owns the entities, so it scales with cores.
+ * Region threading is detected once at startup.
+ */
+public class PluginScheduler {
+
+    // Folia splits regions on sections of 2^4 x 2^4 chunks by default; a section is never split across regions
+    private static final int REGION_SECTION_SHIFT = 4;
+
+    /**
+     * A scheduled repeating or delayed task that can be cancelled.
+     */
+    public interface Task {
+        void cancel();
+
+        boolean isCancelled();
+    }
+
+    /**
+     * Visits a batch of entities on the thread that owns them and returns a number to be summed,
+     * e.g. how many entities were counted or removed.
+     */
+    @FunctionalInterface
+    public interface EntityVisitor {
+        int visit(World world, List<Entity> entities);
+    }
+
+    private final EntityCleanupPlugin plugin;
+    private final boolean folia;
+    private final LoadedChunkIndex loadedChunks; // Folia only: chunk lists may not be read from the global region
+
+    public PluginScheduler(EntityCleanupPlugin plugin) {
+        this.plugin = plugin;
+        this.folia = detectFolia();
+        this.loadedChunks = folia ? new LoadedChunkIndex() : null;
+    }
+
+    private static boolean detectFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the server uses region threading.
+     *
+     * @return True on Folia.
+     */
+    public boolean isFolia() {
+        return folia;
+    }
+
+    /**
+     * Gets the index of chunks with loaded entities, which replaces {@link World#getLoadedChunks()} on Folia.
+     * The plugin registers it as a listener at startup.
+     *
+     * @return The index on Folia, or null on Paper, where the chunk list can be read on the main thread.
+     */
+    public LoadedChunkIndex getLoadedChunkIndex() {
+        return loadedChunks;
+    }
+
+    /**
+     * Runs a task on the main thread (Paper) or the global region thread (Folia) on the next tick.
+     *
+     * @param task The task.
+     */
+    public void runGlobal(Runnable task) {
+        if (folia) {
+            Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /**
+     * Runs a task on the main thread or global region thread, immediately if already on the main thread.
+     *
+     * @param task The task.
+     */
+    public void runGlobalNow(Runnable task) {
+        if (!folia && Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            runGlobal(task);
+        }
+    }
+
+    /**
+     * Runs a task on the main thread (Paper) or the global region thread (Folia) after a delay.
+     *
+     * @param task       The task.
+     * @param delayTicks Ticks before the task runs.
+     */
+    public void runGlobalLater(Runnable task, long delayTicks) {
+        if (folia) {
+            // Folia requires a delay of at least one tick
+            Bukkit.getGlobalRegionScheduler().runDelayed(plugin, scheduled -> task.run(), Math.max(1L, delayTicks));
+        } else {
+            Bukkit.getScheduler().runTaskLater(plugin, task, delayTicks);
+        }
+    }
+
+    /**
+     * Runs a repeating task on the main thread (Paper) or the global region thread (Folia).
+     *
+     * @param task        The task.
+     * @param delayTicks  Ticks before the first run.
+     * @param periodTicks Ticks between runs.
+     * @return The scheduled task.
+     */
+    public Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+        if (folia) {
+            // Folia requires a delay of at least one tick
+            return wrap(Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, scheduled -> task.run(), Math.max(1L, delayTicks), periodTicks));
+        }
+        return wrap(Bukkit.getScheduler().runTaskTimer(plugin, task, delayTicks, periodTicks));
+    }
+
+    /**
+     * Runs a repeating task off the main thread.
+     *
+     * @param task        The task.
+     * @param delayTicks  Ticks before the first run.
+     * @param periodTicks Ticks between runs.
+     * @return The scheduled task.
+     */
+    public Task runAsyncTimer(Runnable task, long delayTicks, long periodTicks) {
+        if (folia) {
+            // The async scheduler works in wall-clock time, 50 ms per tick
+            return wrap(Bukkit.getAsyncScheduler().runAtFixedRate(plugin, scheduled -> task.run(),
+                    Math.max(1L, delayTicks) * 50L, periodTicks * 50L, TimeUnit.MILLISECONDS));
+        }
+        return wrap(Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, task, delayTicks, periodTicks));
+    }
+
+    /**
+     * Runs a task on the thread that owns the given chunk.
+     *
+     * @param world  The world.
+     * @param chunkX The chunk x coordinate.
+     * @param chunkZ The chunk z coordinate.
+     * @param task   The task.
+     */
+    public void runAtChunk(World world, int chunkX, int chunkZ, Runnable task) {
+        if (folia) {
+            Bukkit.getRegionScheduler().execute(plugin, world, chunkX, chunkZ, task);
+        } else {
+            runGlobalNow(task);
+        }
+    }
+
+    /**
+     * Visits the entities of every world on the thread(s) that own them and sums the visitor's results.
+     * On Paper this runs synchronously, one {@link World#getEntities()} batch per world, and must be
+     * called on the main thread. On Folia the chunks in the {@link LoadedChunkIndex} are grouped by region
+     * section and each group is visited on its owning region thread; {@code onComplete} then runs on the
+     * global region thread.
+     * {@code onComplete} runs even if the visitor throws, with the results gathered so far.
+     *
+     * @param visitor    Visits each batch of entities.
+     * @param onComplete Receives the sum of the visitor's results once every batch is done.
+     */
+    public void visitEntities(EntityVisitor visitor, IntConsumer onComplete) {
+        visitEntities(Bukkit.getWorlds(), visitor, onComplete);
+    }
+
+    /**
+     * Visits the entities of the given worlds, like {@link #visitEntities(EntityVisitor, IntConsumer)}.
+     *
+     * @param worlds     The worlds to visit.
+     * @param visitor    Visits each batch of entities.
+     * @param onComplete Receives the sum of the visitor's results once every batch is done.
+     */
+    public void visitEntities(List<World> worlds, EntityVisitor visitor, IntConsumer onComplete) {
+        if (!folia) {
+            int total = 0;
+            try {
+                for (World world : worlds) {
+                    total += visitor.visit(world, world.getEntities());
+                }
+            } finally {
+                // Like a failed region batch on Folia: the rest is skipped, but the caller always hears back
+                onComplete.accept(total);
+            }
+            return;
+        }
+
+        Aggregate aggregate = new Aggregate(onComplete);
+        for (World world : worlds) {
+            for (long[] section : groupBySection(loadedChunks.getChunks(world))) {
+                aggregate.fork();
+                Bukkit.getRegionScheduler().execute(plugin, world, ChunkDensityIndex.chunkX(section[0]), ChunkDensityIndex.chunkZ(section[0]), () -> {
+                    int result = 0;
+                    try {
+                        for (long key : section) {
+                            int chunkX = ChunkDensityIndex.chunkX(key);
+                            int chunkZ = ChunkDensityIndex.chunkZ(key);
+                            // The index is a snapshot; never load a chunk that has unloaded since
+                            if (world.isChunkLoaded(chunkX, chunkZ)) {
+                                result += visitor.visit(world, Arrays.asList(world.getChunkAt(chunkX, chunkZ).getEntities()));
+                            }
+                        }
+                    } finally {
+                        aggregate.join(result);
+                    }
+                });
+            }
+        }
+        aggregate.seal();
+    }
+
+    /**
+     * Visits a list of chunks, each on the thread that owns it, and sums the visitor's results.
+     * Unloaded chunks are skipped. On Paper this runs synchronously on the main thread.
+     *
+     * @param worlds     The world of each chunk.
+     * @param chunkXs    The chunk x coordinates.
+     * @param chunkZs    The chunk z coordinates.
+     * @param visitor    Visits the entities of each chunk.
+     * @param onComplete Receives the sum of the visitor's results once every chunk is done.
+     */
+    public void visitChunks(World[] worlds, int[] chunkXs, int[] chunkZs, EntityVisitor visitor, IntConsumer onComplete) {
+        Aggregate aggregate = new Aggregate(onComplete);
+        for (int i = 0; i < worlds.length; i++) {
+            World world = worlds[i];
+            int chunkX = chunkXs[i];
+            int chunkZ = chunkZs[i];
+            aggregate.fork();
+            runAtChunk(world, chunkX, chunkZ, () -> {
+                int result = 0;
+                try {
+                    // Never load chunks just to visit them
+                    if (world.isChunkLoaded(chunkX, chunkZ)) {
+                        result = visitor.visit(world, Arrays.asList(world.getChunkAt(chunkX, chunkZ).getEntities()));
+                    }
+                } finally {
+                    aggregate.join(result);
+                }
+            });
+        }
+        aggregate.seal();
+    }
+
+    /**
+     * Runs an action for each entity on the thread that owns it and sums the action's results.
+     * Entities removed from the world before their turn are skipped. On Paper this runs synchronously
+     * on the main thread.
+     *
+     * @param entities   The entities.
+     * @param action     Runs for each entity and returns a number to be summed.
+     * @param onComplete Receives the sum of the results once every entity is done.
+     */
+    public void forEachEntity(List<Entity> entities, ToIntFunction<Entity> action, IntConsumer onComplete) {
+        if (!folia) {
+            int total = 0;
+            try {
+                for (Entity entity : entities) {
+                    total += action.applyAsInt(entity);
+                }
+            } finally {
+                onComplete.accept(total);
+            }
+            return;
+        }
+
+        Aggregate aggregate = new Aggregate(onComplete);
+        for (Entity entity : entities) {
+            aggregate.fork();
+            boolean scheduled = entity.getScheduler().execute(plugin, () -> {
+                int result = 0;
+                try {
+                    result = action.applyAsInt(entity);
+                } finally {
+                    aggregate.join(result);
+                }
+            }, () -> aggregate.join(0), 1L);
+            if (!scheduled) {
+                aggregate.join(0); // Already removed from the world
+            }
+        }
+        aggregate.seal();
+    }
+
+    private static List<long[]> groupBySection(long[] chunks) {
+        Map<Long, LongList> sections = new HashMap<>();
+        for (long chunk : chunks) {
+            long section = ChunkDensityIndex.key(ChunkDensityIndex.chunkX(chunk) >> REGION_SECTION_SHIFT,
+                    ChunkDensityIndex.chunkZ(chunk) >> REGION_SECTION_SHIFT);
+            sections.computeIfAbsent(section, key -> new LongList()).add(chunk);
+        }
+        List<long[]> grouped = new ArrayList<>(sections.size());
+        for (LongList section : sections.values()) {
+            grouped.add(Arrays.copyOf(section.values, section.size));
+        }
+        return grouped;
+    }
+
+    /**
+     * Minimal growable list of primitive longs, so grouping chunk keys doesn't box each one.
+     */
+    private static final class LongList {
+        private long[] values = new long[8];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Sums results from tasks running on several threads and reports the total once all of them are done.
+     */
+    private final class Aggregate {
+        private final IntConsumer onComplete;
+        private final AtomicInteger pending = new AtomicInteger(1); // Held open until seal()
+        private final AtomicInteger total = new AtomicInteger(0);
+
+        private Aggregate(IntConsumer onComplete) {
+            this.onComplete = onComplete;
+        }
+
+        void fork() {
+            pending.incrementAndGet();
+        }
+
+        void join(int result) {
+            total.addAndGet(result);
+            if (pending.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        void seal() {
+            join(0);
+        }
+
+        private void complete() {
+            if (folia) {
+                runGlobal(() -> onComplete.accept(total.get()));
+            } else {
+                runGlobalNow(() -> onComplete.accept(total.get()));
+            }
+        }
+    }
+
+    private static Task wrap(BukkitTask task) {
+        return new Task() {
+            @Override
+            public void cancel() {
+                task.cancel();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return task.isCancelled();
+            }
+        };
+    }
+
+    private static Task wrap(ScheduledTask task) {
+        return new Task() {
+            @Override
+            public void cancel() {
+                task.cancel();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return task.isCancelled();
+            }
+        };
+    }
+}
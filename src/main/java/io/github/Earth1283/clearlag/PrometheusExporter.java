@@ -0,0 +1,118 @@
+package io.github.Earth1283.clearlag;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes {@link CleanupMetrics} to a file in the Prometheus text exposition format, for the node
+ * exporter's textfile collector. Runs on an async timer, so the file is never written on the main
+ * thread. The file is written to a temporary file first and then moved into place, so a scrape
+ * never sees a half-written file.
+ */
+public class PrometheusExporter implements Runnable {
+
+    private final EntityCleanupPlugin plugin;
+    private final CleanupMetrics metrics;
+    private final File file;
+
+    public PrometheusExporter(EntityCleanupPlugin plugin, CleanupMetrics metrics, File file) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+        this.file = file;
+    }
+
+    @Override
+    public void run() {
+        String text = render();
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        try {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Files.write(temporary, text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().warning("无法写入性能指标文件 " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private String render() {
+        StringBuilder out = new StringBuilder(2048);
+
+        percentiles(out, "clearlag_cleanup_scan_microseconds", "Wall time of the cleanup scan phase per run.", metrics.cleanupScanMicros());
+        percentiles(out, "clearlag_cleanup_remove_microseconds", "Wall time of the cleanup removal phase per run.", metrics.cleanupRemoveMicros());
+        percentiles(out, "clearlag_cleanup_examined_entities", "Entities examined per cleanup run.", metrics.cleanupExamined());
+        percentiles(out, "clearlag_cleanup_removed_entities", "Entities removed per cleanup run.", metrics.cleanupRemoved());
+        percentiles(out, "clearlag_counting_scan_microseconds", "Wall time of a counting pass.", metrics.countingScanMicros());
+
+        counterHeader(out, "clearlag_cleanup_runs_total", "Cleanup runs since startup.");
+        out.append("clearlag_cleanup_runs_total ").append(metrics.cleanupRuns()).append('\n');
+        counterHeader(out, "clearlag_counting_runs_total", "Counting passes since startup.");
+        out.append("clearlag_counting_runs_total ").append(metrics.countingRuns()).append('\n');
+
+        Map<String, CleanupMetrics.WorldTotals> worlds = metrics.worldTotals();
+        counterHeader(out, "clearlag_world_examined_entities_total", "Entities examined by cleanup per world since startup.");
+        for (Map.Entry<String, CleanupMetrics.WorldTotals> entry : worlds.entrySet()) {
+            out.append("clearlag_world_examined_entities_total{world=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().examined()).append('\n');
+        }
+        counterHeader(out, "clearlag_world_removed_entities_total", "Entities removed by cleanup per world since startup.");
+        for (Map.Entry<String, CleanupMetrics.WorldTotals> entry : worlds.entrySet()) {
+            out.append("clearlag_world_removed_entities_total{world=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().removed()).append('\n');
+        }
+        counterHeader(out, "clearlag_world_scan_microseconds_total", "Wall time of the cleanup scan phase per world since startup.");
+        for (Map.Entry<String, CleanupMetrics.WorldTotals> entry : worlds.entrySet()) {
+            out.append("clearlag_world_scan_microseconds_total{world=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().scanMicros()).append('\n');
+        }
+        counterHeader(out, "clearlag_world_remove_microseconds_total", "Wall time of the cleanup removal phase per world since startup.");
+        for (Map.Entry<String, CleanupMetrics.WorldTotals> entry : worlds.entrySet()) {
+            out.append("clearlag_world_remove_microseconds_total{world=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().removeMicros()).append('\n');
+        }
+
+        counterHeader(out, "clearlag_type_examined_entities_total", "Entities examined by cleanup per type since startup.");
+        for (Map.Entry<String, Long> entry : metrics.examinedByType().entrySet()) {
+            out.append("clearlag_type_examined_entities_total{type=\"").append(entry.getKey().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+        counterHeader(out, "clearlag_type_removed_entities_total", "Entities removed by cleanup per type since startup.");
+        for (Map.Entry<String, Long> entry : metrics.removedByType().entrySet()) {
+            out.append("clearlag_type_removed_entities_total{type=\"").append(entry.getKey().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+        counterHeader(out, "clearlag_type_merged_entities_total", "Items and orbs merged into a neighbour per type since startup.");
+        for (Map.Entry<String, Long> entry : metrics.mergedByType().entrySet()) {
+            out.append("clearlag_type_merged_entities_total{type=\"").append(entry.getKey().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the percentiles of the recent runs. These are gauges over a rolling window rather than a
+     * Prometheus summary, since there is no all-time sum and count behind them.
+     */
+    private static void percentiles(StringBuilder out, String name, String help, RollingHistogram.Snapshot snapshot) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append("{quantile=\"0.5\"} ").append(snapshot.p50()).append('\n');
+        out.append(name).append("{quantile=\"0.95\"} ").append(snapshot.p95()).append('\n');
+        out.append(name).append("{quantile=\"1\"} ").append(snapshot.max()).append('\n');
+    }
+
+    private static void counterHeader(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
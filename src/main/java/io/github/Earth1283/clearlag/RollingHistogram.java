@@ -0,0 +1,86 @@
+package io.github.Earth1283.clearlag;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent samples of a value in a fixed ring buffer.
+ * Recording a sample never allocates; percentiles are computed from a copy when a snapshot is taken.
+ */
+public final class RollingHistogram {
+
+    /**
+     * Percentiles of the samples in the window at the time the snapshot was taken.
+     */
+    public static final class Snapshot {
+        private final int count;
+        private final long p50;
+        private final long p95;
+        private final long max;
+
+        private Snapshot(int count, long p50, long p95, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.max = max;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public long p50() {
+            return p50;
+        }
+
+        public long p95() {
+            return p95;
+        }
+
+        public long max() {
+            return max;
+        }
+    }
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public RollingHistogram(int window) {
+        this.samples = new long[window];
+    }
+
+    /**
+     * Records a sample, overwriting the oldest one once the window is full.
+     *
+     * @param value The sample.
+     */
+    public synchronized void record(long value) {
+        samples[next] = value;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Computes the percentiles of the samples currently in the window.
+     *
+     * @return The snapshot; all zero if nothing has been recorded.
+     */
+    public Snapshot snapshot() {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, count);
+        }
+        if (sorted.length == 0) {
+            return new Snapshot(0, 0, 0, 0);
+        }
+        Arrays.sort(sorted);
+        return new Snapshot(sorted.length, percentile(sorted, 0.50), percentile(sorted, 0.95), sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Removes entities chunk by chunk, spending at most a fixed time budget per tick.
+ * The sweep resumes on the next tick where it left off and reports the total removed count once every
+ * world has been walked. The loaded chunks of every world are snapshotted when the sweep starts, and each
+ * tick walks at least its share of them ({@code chunks / maxTicks}) even past the budget, so the sweep
+ * always completes within the tick limit without ever sweeping the remainder in one tick.
+ */
+public class SlicedCleanupTask extends BukkitRunnable {
+
+    private final EntityCleanupPlugin plugin;
+    private final IntConsumer onComplete; // Receives the total number of removed entities
+    private final long budgetNanos;
+    private final int maxTicks;
+    private final CleanupMetrics.Run metricsRun;
+    private final AuditLog.Recorder auditRecorder; // Null when the audit log is disabled
+
+    private final List<World> worlds;
+    private final List<Chunk[]> worldChunks = new ArrayList<>(); // Loaded chunks of each world, snapshotted at the start
+    private int chunksPerTick; // Chunks each tick must walk, whatever the budget, to finish within maxTicks
+    private int worldIndex = 0;
+    private Chunk[] chunks; // Chunks of the current world
+    private int chunkIndex = 0;
+
+    private int removedCount = 0;
+
+    public SlicedCleanupTask(EntityCleanupPlugin plugin, List<World> worlds, CleanupMetrics.Run metricsRun,
+                             AuditLog.Recorder auditRecorder, IntConsumer onComplete) {
+        this.plugin = plugin;
+        this.onComplete = onComplete;
+        this.budgetNanos = plugin.getCleanupTickBudgetMicros() * 1000L;
+        this.maxTicks = plugin.getCleanupMaxTicks();
+        this.metricsRun = metricsRun;
+        this.auditRecorder = auditRecorder;
+        this.worlds = new ArrayList<>(worlds);
+    }
+
+    /**
+     * Starts the sweep. The first slice runs on the next tick, then one slice every tick until done.
+     */
+    public void start() {
+        // Size the slices up front so the whole sweep fits in maxTicks
+        long totalChunks = 0;
+        for (World world : worlds) {
+            Chunk[] loaded = world.getLoadedChunks();
+            worldChunks.add(loaded);
+            totalChunks += loaded.length;
+        }
+        chunksPerTick = (int) Math.max(1L, (totalChunks + maxTicks - 1) / maxTicks);
+        runTaskTimer(plugin, 0L, 1L);
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + budgetNanos;
+        int walked = 0;
+
+        while (true) {
+            Chunk chunk = nextChunk();
+            if (chunk == null) {
+                // Every world has been walked
+                cancel();
+                onComplete.accept(removedCount);
+                return;
+            }
+            walked++;
+
+            // The chunk may have unloaded since the world's chunk list was snapshotted
+            if (chunk.isLoaded()) {
+                World world = chunk.getWorld();
+                removedCount += CleanupTask.sweep(plugin.getRules(world), plugin.getItemConsolidator(), metricsRun, auditRecorder, world,
+                        Arrays.asList(chunk.getEntities()), 0);
+            }
+
+            // Past the budget, stop once this tick's share is done and resume on the next tick
+            if (walked >= chunksPerTick && System.nanoTime() >= deadline) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Advances to the next chunk to process, moving on to the next world when the current one is done.
+     *
+     * @return The next chunk, or null when every world has been walked.
+     */
+    private Chunk nextChunk() {
+        while (chunks == null || chunkIndex >= chunks.length) {
+            if (worldIndex >= worlds.size()) {
+                return null;
+            }
+            chunks = worldChunks.get(worldIndex++);
+            chunkIndex = 0;
+        }
+        return chunks[chunkIndex++];
+    }
+}
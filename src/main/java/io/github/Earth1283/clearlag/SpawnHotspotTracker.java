@@ -0,0 +1,302 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks how fast entities spawn in each chunk, to tell a mob farm (constant churn in one chunk) apart from
+ * a busy area with many standing entities. Every spawn adds to an exponentially decaying counter of its
+ * chunk, so a counter reflects the recent spawn rate and fades once spawning stops.
+ * <p>
+ * Memory is fixed no matter how many chunks are loaded: chunk counters live in a table of {@code capacity}
+ * slots that never grows. A chunk probes a few slots; if all of them belong to other chunks, the weakest one
+ * is taken over and its count inherited (Space-Saving), so a real hotspot is never pushed out by cold chunks,
+ * at the cost of a possible overestimate. The split by spawn reason is kept in a small count-min sketch.
+ * <p>
+ * Decay is applied lazily ("forward decay"): instead of shrinking every counter over time, each new spawn
+ * is added with a weight that grows over time, and reads divide by the current weight. Counters are
+ * rescaled once the weight gets large.
+ */
+public class SpawnHotspotTracker implements Listener {
+
+    private static final int PROBES = 8; // Slots a chunk may occupy
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 2048; // Power of two
+    private static final double RESCALE_AT = 1e12; // Weight at which every counter is scaled back down
+    private static final CreatureSpawnEvent.SpawnReason[] REASONS = CreatureSpawnEvent.SpawnReason.values();
+    private static final int ITEM_SLOT = REASONS.length; // Dropped items, after the spawn reasons
+
+    // Chunk coordinates stay within 26 bits (±30 million blocks), leaving 12 bits for the world
+    private static final int COORD_BITS = 26;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    /**
+     * One chunk of the hotspot list.
+     */
+    public static final class Hotspot {
+        private final String worldName;
+        private final int chunkX;
+        private final int chunkZ;
+        private final double spawnsPerMinute;
+        private final String reasons;
+
+        private Hotspot(String worldName, int chunkX, int chunkZ, double spawnsPerMinute, String reasons) {
+            this.worldName = worldName;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.spawnsPerMinute = spawnsPerMinute;
+            this.reasons = reasons;
+        }
+
+        public String worldName() {
+            return worldName;
+        }
+
+        public int chunkX() {
+            return chunkX;
+        }
+
+        public int chunkZ() {
+            return chunkZ;
+        }
+
+        public double spawnsPerMinute() {
+            return spawnsPerMinute;
+        }
+
+        /**
+         * @return The main spawn reasons with their rates, like {@code SPAWNER=42.0, NATURAL=3.1}.
+         */
+        public String reasons() {
+            return reasons;
+        }
+    }
+
+    private final EntityCleanupPlugin plugin;
+    private final double decayPerNano; // ln 2 / half-life
+    private final double meanLifetimeMinutes; // Steady-state counter divided by this is the rate per minute
+
+    // World ids start at 1, so a packed key is never 0 (the empty slot marker)
+    private final Map<UUID, Integer> worldIds = new ConcurrentHashMap<>();
+    private final List<String> worldNames = new ArrayList<>(); // Index is the world id, guarded by this
+
+    // Guarded by this
+    private final long[] keys;
+    private final double[] counts;
+    private final int mask;
+    private final double[] sketch = new double[SKETCH_DEPTH * SKETCH_WIDTH];
+    private long baseNanos = System.nanoTime();
+
+    // Scratch location reused for every spawn on the same thread
+    private static final ThreadLocal<Location> SCRATCH_LOCATION = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    /**
+     * @param plugin          The plugin.
+     * @param capacity        Number of chunk slots; rounded up to a power of two.
+     * @param halfLifeSeconds Time for a counter to halve once spawning stops.
+     */
+    public SpawnHotspotTracker(EntityCleanupPlugin plugin, int capacity, long halfLifeSeconds) {
+        this.plugin = plugin;
+        int size = Integer.highestOneBit(Math.max(PROBES, capacity) - 1) << 1;
+        this.keys = new long[size];
+        this.counts = new double[size];
+        this.mask = size - 1;
+        this.decayPerNano = Math.log(2) / (halfLifeSeconds * 1_000_000_000.0);
+        this.meanLifetimeMinutes = halfLifeSeconds / Math.log(2) / 60.0;
+        worldNames.add(null); // Id 0 is never used
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onCreatureSpawn(CreatureSpawnEvent event) {
+        record(event.getEntity(), event.getSpawnReason().ordinal());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemSpawn(ItemSpawnEvent event) {
+        record(event.getEntity(), ITEM_SLOT);
+    }
+
+    private void record(Entity entity, int reason) {
+        World world = entity.getWorld();
+        if (!plugin.isCleanupEnabled(world)) {
+            return;
+        }
+        Location location = entity.getLocation(SCRATCH_LOCATION.get());
+        int chunkX = location.getBlockX() >> 4;
+        int chunkZ = location.getBlockZ() >> 4;
+
+        synchronized (this) {
+            long key = pack(worldId(world), chunkX, chunkZ);
+            double weight = weight(System.nanoTime());
+            counts[slotFor(key)] += weight;
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                sketch[cell(row, key, reason)] += weight;
+            }
+        }
+    }
+
+    /**
+     * Gets the recent spawn rate of a chunk.
+     *
+     * @param world  The world.
+     * @param chunkX The chunk x coordinate.
+     * @param chunkZ The chunk z coordinate.
+     * @return Spawns per minute, 0 if the chunk is not tracked.
+     */
+    public synchronized double getSpawnsPerMinute(World world, int chunkX, int chunkZ) {
+        Integer id = worldIds.get(world.getUID());
+        if (id == null) {
+            return 0;
+        }
+        long key = pack(id, chunkX, chunkZ);
+        int start = mix(key) & mask;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (keys[slot] == key) {
+                return toRate(counts[slot] / weight(System.nanoTime()));
+            }
+            if (keys[slot] == 0) {
+                break;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Lists the chunks with the highest spawn rates.
+     *
+     * @param limit The maximum number of chunks.
+     * @return The hotspots, fastest first.
+     */
+    public synchronized List<Hotspot> getHotspots(int limit) {
+        double weight = weight(System.nanoTime());
+        List<Integer> slots = new ArrayList<>();
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0 && toRate(counts[slot] / weight) >= 0.1) {
+                slots.add(slot);
+            }
+        }
+        slots.sort((a, b) -> Double.compare(counts[b], counts[a]));
+
+        List<Hotspot> hotspots = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, slots.size()); i++) {
+            int slot = slots.get(i);
+            long key = keys[slot];
+            hotspots.add(new Hotspot(worldNames.get((int) (key >>> (COORD_BITS * 2))), unpackX(key), unpackZ(key),
+                    toRate(counts[slot] / weight), describeReasons(key, weight)));
+        }
+        return hotspots;
+    }
+
+    private String describeReasons(long key, double weight) {
+        StringBuilder out = new StringBuilder();
+        // Sketch estimates only ever overcount; skip reasons that round to nothing
+        for (int reason = 0; reason <= ITEM_SLOT; reason++) {
+            double estimate = Double.MAX_VALUE;
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                estimate = Math.min(estimate, sketch[cell(row, key, reason)]);
+            }
+            double rate = toRate(estimate / weight);
+            if (rate < 0.1) {
+                continue;
+            }
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            out.append(reason == ITEM_SLOT ? "ITEM" : REASONS[reason].name()).append('=').append(String.format("%.1f", rate));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Finds the slot of a chunk, claiming an empty one or taking over the weakest of its probe sequence.
+     */
+    private int slotFor(long key) {
+        int start = mix(key) & mask;
+        int weakest = start;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                return slot;
+            }
+            if (counts[slot] < counts[weakest]) {
+                weakest = slot;
+            }
+        }
+        // The count is inherited, so the new chunk is never underestimated
+        keys[weakest] = key;
+        return weakest;
+    }
+
+    /**
+     * Gets the current forward-decay weight, rescaling every counter first if it has grown too large.
+     */
+    private double weight(long now) {
+        double weight = Math.exp(decayPerNano * (now - baseNanos));
+        if (weight < RESCALE_AT) {
+            return weight;
+        }
+        double scale = 1.0 / weight;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] *= scale;
+        }
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] *= scale;
+        }
+        baseNanos = now;
+        return 1.0;
+    }
+
+    private double toRate(double decayedCount) {
+        return decayedCount / meanLifetimeMinutes;
+    }
+
+    private int worldId(World world) {
+        Integer id = worldIds.get(world.getUID());
+        if (id == null) {
+            id = worldNames.size();
+            worldNames.add(world.getName());
+            worldIds.put(world.getUID(), id);
+        }
+        return id;
+    }
+
+    private static long pack(int worldId, int chunkX, int chunkZ) {
+        return ((long) worldId << (COORD_BITS * 2)) | ((chunkX & COORD_MASK) << COORD_BITS) | (chunkZ & COORD_MASK);
+    }
+
+    private static int unpackX(long key) {
+        return (int) (((key >>> COORD_BITS) & COORD_MASK) << (32 - COORD_BITS)) >> (32 - COORD_BITS);
+    }
+
+    private static int unpackZ(long key) {
+        return (int) ((key & COORD_MASK) << (32 - COORD_BITS)) >> (32 - COORD_BITS);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int cell(int row, long key, int reason) {
+        // A different odd multiplier per row gives independent-enough hashes
+        long h = (key * 31 + reason) * (0x9E3779B97F4A7C15L + 2L * row);
+        return row * SKETCH_WIDTH + ((int) (h ^ (h >>> 29)) & (SKETCH_WIDTH - 1));
+    }
+}
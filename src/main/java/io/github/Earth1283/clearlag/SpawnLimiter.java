@@ -0,0 +1,178 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * Cancels spawns of entities that a cleanup would remove anyway, once their chunk or world is over the cap.
+ * Only types listed in {@code entities-to-clear} (per world) are limited. Each spawn reason has its own caps:
+ * the chunk cap is compared to the number of listed entities in the chunk ({@link ChunkDensityIndex}), the
+ * world cap to the number of entities of the spawning type in the world ({@link EntityTracker}).
+ * Both lookups are constant time, so the listener costs the same no matter how many entities are loaded.
+ * Dropped items have no spawn reason and use the caps under {@code items}.
+ */
+public class SpawnLimiter implements Listener {
+
+    private static final int UNLIMITED = -1;
+    private static final CreatureSpawnEvent.SpawnReason[] REASONS = CreatureSpawnEvent.SpawnReason.values();
+    private static final int ITEM_SLOT = REASONS.length; // Caps for ItemSpawnEvent, after the spawn reasons
+
+    // Scratch location reused for every spawn checked on the same thread
+    private static final ThreadLocal<Location> SCRATCH_LOCATION = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    private final EntityCleanupPlugin plugin;
+    private final EntityTracker tracker;
+    private final ChunkDensityIndex densityIndex;
+    private final int[] chunkCaps; // Indexed by spawn reason ordinal, UNLIMITED for no cap
+    private final int[] worldCaps;
+    private final AtomicLongArray denied; // Cancelled spawns per spawn reason
+
+    private SpawnLimiter(EntityCleanupPlugin plugin, EntityTracker tracker, ChunkDensityIndex densityIndex,
+                         int[] chunkCaps, int[] worldCaps) {
+        this.plugin = plugin;
+        this.tracker = tracker;
+        this.densityIndex = densityIndex;
+        this.chunkCaps = chunkCaps;
+        this.worldCaps = worldCaps;
+        this.denied = new AtomicLongArray(chunkCaps.length);
+    }
+
+    /**
+     * Reads the {@code spawn-limits} section of config.yml.
+     * The {@code default} caps apply to every spawn reason without its own entry under {@code reasons}.
+     *
+     * @param plugin       The plugin.
+     * @param section      The {@code spawn-limits} section.
+     * @param tracker      Live per-world, per-type counters.
+     * @param densityIndex Live per-chunk counters.
+     * @param logger       Logger for invalid values.
+     * @return The limiter.
+     */
+    public static SpawnLimiter load(EntityCleanupPlugin plugin, ConfigurationSection section, EntityTracker tracker,
+                                    ChunkDensityIndex densityIndex, Logger logger) {
+        int defaultChunkCap = readCap(section.getConfigurationSection("default"), "chunk", UNLIMITED, "spawn-limits.default", logger);
+        int defaultWorldCap = readCap(section.getConfigurationSection("default"), "world", UNLIMITED, "spawn-limits.default", logger);
+
+        int[] chunkCaps = new int[REASONS.length + 1];
+        int[] worldCaps = new int[REASONS.length + 1];
+        Arrays.fill(chunkCaps, defaultChunkCap);
+        Arrays.fill(worldCaps, defaultWorldCap);
+
+        ConfigurationSection reasons = section.getConfigurationSection("reasons");
+        if (reasons != null) {
+            for (String reasonName : reasons.getKeys(false)) {
+                CreatureSpawnEvent.SpawnReason reason;
+                try {
+                    reason = CreatureSpawnEvent.SpawnReason.valueOf(reasonName.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    logger.warning("config.yml spawn-limits.reasons 中无效的生成原因: " + reasonName + ". 已跳过.");
+                    continue;
+                }
+                ConfigurationSection caps = reasons.getConfigurationSection(reasonName);
+                String where = "spawn-limits.reasons." + reasonName;
+                chunkCaps[reason.ordinal()] = readCap(caps, "chunk", defaultChunkCap, where, logger);
+                worldCaps[reason.ordinal()] = readCap(caps, "world", defaultWorldCap, where, logger);
+            }
+        }
+
+        ConfigurationSection items = section.getConfigurationSection("items");
+        chunkCaps[ITEM_SLOT] = readCap(items, "chunk", defaultChunkCap, "spawn-limits.items", logger);
+        worldCaps[ITEM_SLOT] = readCap(items, "world", defaultWorldCap, "spawn-limits.items", logger);
+
+        return new SpawnLimiter(plugin, tracker, densityIndex, chunkCaps, worldCaps);
+    }
+
+    private static int readCap(ConfigurationSection section, String key, int fallback, String where, Logger logger) {
+        if (section == null || !section.contains(key)) {
+            return fallback;
+        }
+        int cap = section.getInt(key, fallback);
+        if (cap < UNLIMITED) {
+            logger.warning("config.yml " + where + "." + key + " 无效。使用 " + fallback + "。");
+            return fallback;
+        }
+        return cap;
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onCreatureSpawn(CreatureSpawnEvent event) {
+        if (!admit(event.getEntity(), event.getSpawnReason().ordinal())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onItemSpawn(ItemSpawnEvent event) {
+        if (!admit(event.getEntity(), ITEM_SLOT)) {
+            event.setCancelled(true);
+        }
+    }
+
+    /**
+     * Decides whether a spawn may go ahead. Constant time: one array lookup for the type, and at most one
+     * hash lookup per cap.
+     *
+     * @param entity The entity about to be added to the world.
+     * @param slot   The spawn reason ordinal, or {@link #ITEM_SLOT}.
+     * @return False if the spawn should be cancelled.
+     */
+    private boolean admit(Entity entity, int slot) {
+        int chunkCap = chunkCaps[slot];
+        int worldCap = worldCaps[slot];
+        if (chunkCap == UNLIMITED && worldCap == UNLIMITED) {
+            return true;
+        }
+
+        World world = entity.getWorld();
+        EntityType type = entity.getType();
+        if (!plugin.getRules(world).matchesType(type) || !plugin.isCleanupEnabled(world)) {
+            return true;
+        }
+
+        // The entity is not in the world yet, so the counts don't include it
+        if (worldCap != UNLIMITED && tracker.getCount(world, type) >= worldCap) {
+            denied.incrementAndGet(slot);
+            return false;
+        }
+        if (chunkCap != UNLIMITED) {
+            Location location = entity.getLocation(SCRATCH_LOCATION.get());
+            if (densityIndex.getCount(world, location.getBlockX() >> 4, location.getBlockZ() >> 4) >= chunkCap) {
+                denied.incrementAndGet(slot);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of spawns cancelled since startup, per spawn reason.
+     *
+     * @return A summary like {@code NATURAL=12, SPAWNER=3}, or an empty string if nothing was cancelled.
+     */
+    public String describeDenied() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < denied.length(); i++) {
+            long count = denied.get(i);
+            if (count == 0) {
+                continue;
+            }
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            out.append(i == ITEM_SLOT ? "ITEM" : REASONS[i].name()).append('=').append(count);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Counts entities a slice at a time, one slice per tick, instead of scanning every world in one tick.
+ * A slice is either a whole world or a fixed number of chunks. Each world's last complete count is kept,
+ * and the threshold is checked against the rolling sum of those counts whenever a world finishes.
+ * At the start of every cycle the slice size is raised if needed so that every world is covered within
+ * one counting interval. Runs every tick on the main thread.
+ * Worlds with their own schedule are checked against their own threshold as soon as they are counted,
+ * and are left out of the rolling total.
+ */
+public class StaggeredCountingTask implements Runnable {
+
+    private final EntityCleanupPlugin plugin;
+    private final long intervalTicks;
+    private final int configuredSliceChunks; // 0 means one whole world per slice
+
+    private final Map<UUID, Integer> worldCounts = new HashMap<>(); // Last complete count per world
+    private int rollingTotal = 0;
+
+    // Current cycle
+    private final List<World> worlds = new ArrayList<>();
+    private final List<Chunk[]> worldChunks = new ArrayList<>(); // Only used when slicing by chunks
+    private int worldsPerTick;
+    private int chunksPerTick;
+    private int worldIndex;
+    private int chunkIndex;
+    private int partialCount; // Count of the world in progress
+    private long ticksIntoCycle;
+    private long cycleScanNanos; // Scan time of the current cycle, summed over its slices
+    private boolean cycleDone = true;
+
+    public StaggeredCountingTask(EntityCleanupPlugin plugin, long intervalTicks, int sliceChunks) {
+        this.plugin = plugin;
+        this.intervalTicks = intervalTicks;
+        this.configuredSliceChunks = sliceChunks;
+    }
+
+    @Override
+    public void run() {
+        ticksIntoCycle++;
+        if (cycleDone) {
+            // Wait for the rest of the interval before starting the next cycle
+            if (ticksIntoCycle < intervalTicks && !worlds.isEmpty()) {
+                return;
+            }
+            startCycle();
+        }
+
+        long scanStart = System.nanoTime();
+        if (configuredSliceChunks <= 0) {
+            countWorlds();
+        } else {
+            countChunks();
+        }
+        cycleScanNanos += System.nanoTime() - scanStart;
+        // A whole cycle is one counting pass, like a full scan in the other modes
+        if (cycleDone) {
+            plugin.getMetrics().recordCounting(cycleScanNanos);
+        }
+    }
+
+    private void startCycle() {
+        worlds.clear();
+        worldChunks.clear();
+        worlds.addAll(plugin.getEnabledWorlds());
+        worldIndex = 0;
+        chunkIndex = 0;
+        partialCount = 0;
+        ticksIntoCycle = 0;
+        cycleScanNanos = 0;
+        cycleDone = false;
+
+        // Forget worlds that have been unloaded
+        worldCounts.keySet().removeIf(uid -> Bukkit.getWorld(uid) == null);
+        rollingTotal = worldCounts.values().stream().mapToInt(Integer::intValue).sum();
+
+        // Size the slices so the whole cycle fits in one interval
+        if (configuredSliceChunks <= 0) {
+            worldsPerTick = (int) Math.max(1L, (worlds.size() + intervalTicks - 1) / intervalTicks);
+        } else {
+            long totalChunks = 0;
+            for (World world : worlds) {
+                Chunk[] chunks = world.getLoadedChunks();
+                worldChunks.add(chunks);
+                totalChunks += chunks.length;
+            }
+            chunksPerTick = (int) Math.max(configuredSliceChunks, (totalChunks + intervalTicks - 1) / intervalTicks);
+        }
+    }
+
+    /**
+     * Counts up to {@link #worldsPerTick} whole worlds.
+     */
+    private void countWorlds() {
+        for (int i = 0; i < worldsPerTick && worldIndex < worlds.size(); i++) {
+            World world = worlds.get(worldIndex++);
+            EntityRules rules = plugin.getRules(world);
+            int count = 0;
+            for (Entity entity : world.getEntities()) {
+                if (rules.matches(entity)) {
+                    count++;
+                }
+            }
+            completeWorld(world, count);
+        }
+        if (worldIndex >= worlds.size()) {
+            cycleDone = true;
+        }
+    }
+
+    /**
+     * Counts up to {@link #chunksPerTick} chunks, moving on to the next world when one is done.
+     */
+    private void countChunks() {
+        int budget = chunksPerTick;
+        while (budget > 0 && worldIndex < worlds.size()) {
+            World world = worlds.get(worldIndex);
+            Chunk[] chunks = worldChunks.get(worldIndex);
+            EntityRules rules = plugin.getRules(world);
+
+            while (budget > 0 && chunkIndex < chunks.length) {
+                Chunk chunk = chunks[chunkIndex++];
+                budget--;
+                // The chunk may have unloaded since the cycle started
+                if (!chunk.isLoaded()) {
+                    continue;
+                }
+                for (Entity entity : chunk.getEntities()) {
+                    if (rules.matches(entity)) {
+                        partialCount++;
+                    }
+                }
+            }
+
+            if (chunkIndex >= chunks.length) {
+                completeWorld(world, partialCount);
+                worldIndex++;
+                chunkIndex = 0;
+                partialCount = 0;
+            }
+        }
+        if (worldIndex >= worlds.size()) {
+            cycleDone = true;
+        }
+    }
+
+    /**
+     * Replaces a world's contribution to the rolling total and checks the threshold.
+     *
+     * @param world The world that was just counted.
+     * @param count Its new count.
+     */
+    private void completeWorld(World world, int count) {
+        WorldSettings settings = plugin.getOwnSchedule(world);
+        if (settings != null) {
+            if (count > plugin.getWorldMaxEntities(settings)) {
+                plugin.handleWorldThresholdExceeded(world, count);
+            }
+            return;
+        }
+
+        Integer previous = worldCounts.put(world.getUID(), count);
+        rollingTotal += count - (previous == null ? 0 : previous);
+
+        if (rollingTotal > plugin.getMaxEntitiesBeforeCleanup()) {
+            plugin.handleThresholdExceeded(rollingTotal);
+            // The cleanup makes every stored count stale, so start the rolling total over
+            worldCounts.clear();
+            rollingTotal = 0;
+        }
+    }
+}
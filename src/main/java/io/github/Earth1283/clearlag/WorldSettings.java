@@ -0,0 +1,84 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.logging.Logger;
+
+/**
+ * Scheduling settings of a single world, read from its {@code worlds.<name>} section.
+ * A world that sets its own {@code cleanup-interval-seconds} or {@code max-entities-before-cleanup} has its
+ * own schedule: it gets a separate cleanup timer and threshold, is counted on its own, and is left out of
+ * the global cleanup and count. A disabled world is never counted or cleaned.
+ * The entity list and cleanup rules of the section are compiled separately into {@link EntityRules}.
+ */
+public final class WorldSettings {
+
+    private final String worldName;
+    private final boolean enabled;
+    private final boolean ownSchedule;
+    private final long cleanupIntervalTicks;
+    private final int maxEntitiesBeforeCleanup;
+
+    private WorldSettings(String worldName, boolean enabled, boolean ownSchedule, long cleanupIntervalTicks, int maxEntitiesBeforeCleanup) {
+        this.worldName = worldName;
+        this.enabled = enabled;
+        this.ownSchedule = ownSchedule;
+        this.cleanupIntervalTicks = cleanupIntervalTicks;
+        this.maxEntitiesBeforeCleanup = maxEntitiesBeforeCleanup;
+    }
+
+    /**
+     * Reads the scheduling settings of a world section. Missing values fall back to the global ones.
+     *
+     * @param worldName            The world name.
+     * @param section              The {@code worlds.<name>} section.
+     * @param defaultIntervalTicks The global cleanup interval.
+     * @param defaultThreshold     The global threshold.
+     * @param logger               Logger for invalid values.
+     * @return The settings.
+     */
+    public static WorldSettings load(String worldName, ConfigurationSection section, long defaultIntervalTicks,
+                                     int defaultThreshold, Logger logger) {
+        String where = "config.yml worlds." + worldName;
+        boolean enabled = section.getBoolean("enabled", true);
+        boolean ownSchedule = section.contains("cleanup-interval-seconds") || section.contains("max-entities-before-cleanup");
+
+        long intervalTicks = section.getLong("cleanup-interval-seconds", defaultIntervalTicks / 20L) * 20L;
+        int threshold = section.getInt("max-entities-before-cleanup", defaultThreshold);
+        if (intervalTicks <= 0) {
+            logger.warning(where + " 中的 cleanup-interval-seconds 无效。使用全局值 " + (defaultIntervalTicks / 20) + " 秒。");
+            intervalTicks = defaultIntervalTicks;
+        }
+        if (threshold < 0) {
+            logger.warning(where + " 中的 max-entities-before-cleanup 无效。使用全局值 " + defaultThreshold + "。");
+            threshold = defaultThreshold;
+        }
+        return new WorldSettings(worldName, enabled, ownSchedule, intervalTicks, threshold);
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    /**
+     * @return False if the world is never counted or cleaned.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return True if the world has its own cleanup timer and threshold.
+     */
+    public boolean hasOwnSchedule() {
+        return enabled && ownSchedule;
+    }
+
+    public long getCleanupIntervalTicks() {
+        return cleanupIntervalTicks;
+    }
+
+    public int getMaxEntitiesBeforeCleanup() {
+        return maxEntitiesBeforeCleanup;
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.entity.EntityType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The audit log writer: every recorded removal ends up in the files once the log stops, and files rotate
+ * on their compressed size on disk rather than on the length of the text written into them.
+ */
+class AuditLogTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void everyRecordIsWrittenByTheTimeItStops() throws IOException {
+        FakeWorlds.FakeWorld world = new FakeWorlds.FakeWorld("world_nether");
+        FakeWorlds.FakeEntity zombie = world.spawn(EntityType.ZOMBIE, 37.5, -20.5, null);
+
+        AuditLog log = new AuditLog(directory, 1024, 16 * 1024 * 1024, 30, Logger.getLogger("clearlag-test"));
+        log.start();
+        AuditLog.Recorder recorder = log.recorder(CleanupTrigger.THRESHOLD);
+        for (int i = 0; i < 100; i++) {
+            recorder.record(zombie.entity());
+        }
+        log.stop();
+
+        List<String> lines = readAll();
+        assertEquals(100, lines.size());
+        // Time, world, chunk, block, type, custom name, trigger; fake entities stand at y 64
+        String[] fields = lines.get(0).split("\t");
+        assertEquals(List.of("world_nether", "2,-2", "37,64,-21", "ZOMBIE", "-", "threshold"),
+                Arrays.asList(fields).subList(1, fields.length));
+        assertEquals(0, log.getDroppedCount());
+    }
+
+    @Test
+    void rotatesOnTheCompressedSize() throws IOException {
+        FakeWorlds.FakeWorld world = new FakeWorlds.FakeWorld("world");
+        FakeWorlds.FakeEntity zombie = world.spawn(EntityType.ZOMBIE, 0.5, 0.5, null);
+
+        // About 300 KB of text, which compresses to a small fraction of the 64 KB limit
+        AuditLog log = new AuditLog(directory, 8192, 64 * 1024, 100, Logger.getLogger("clearlag-test"));
+        log.start();
+        AuditLog.Recorder recorder = log.recorder(CleanupTrigger.SCHEDULED);
+        for (int i = 0; i < 5000; i++) {
+            recorder.record(zombie.entity());
+        }
+        log.stop();
+
+        assertEquals(5000, readAll().size());
+        assertEquals(1, files().length, "counting the text instead of the compressed bytes would rotate several times");
+        assertTrue(files()[0].length() < 64 * 1024);
+    }
+
+    private File[] files() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".log.gz"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private List<String> readAll() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (File file : files()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+}
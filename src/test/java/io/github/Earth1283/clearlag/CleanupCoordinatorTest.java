@@ -0,0 +1,301 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The request cycle of {@link CleanupCoordinator}, run against a host that queues scheduled tasks and sweeps
+ * instead of running them, so each test decides when the next tick comes and when a sweep finishes.
+ */
+class CleanupCoordinatorTest {
+
+    private static final long INTERVAL = 6000;
+
+    @Test
+    void requestsWhilePendingMergeIntoOneSweep() {
+        StubHost host = new StubHost();
+        CleanupCoordinator coordinator = new CleanupCoordinator(host, null, INTERVAL, () -> INTERVAL, 0);
+        Sender sender = new Sender();
+
+        coordinator.request(CleanupTrigger.SCHEDULED, null);
+        coordinator.request(CleanupTrigger.MANUAL, sender.proxy());
+        coordinator.request(CleanupTrigger.THRESHOLD, null);
+
+        assertEquals(CleanupCoordinator.State.PENDING, coordinator.getState());
+        assertEquals(2, coordinator.getCoalescedCount());
+        assertEquals(1, host.tasks.size(), "only the first request schedules a start");
+
+        host.runTasks();
+        Sweep sweep = host.onlySweep();
+        // The manual request widens the sweep, the automatic ones still make it broadcast
+        assertEquals(CleanupTrigger.MANUAL, sweep.trigger());
+        assertTrue(sweep.announce());
+        assertEquals(CleanupCoordinator.State.RUNNING, coordinator.getState());
+
+        sweep.onComplete().accept(12);
+        assertEquals(1, sender.results);
+        assertEquals(CleanupCoordinator.State.IDLE, coordinator.getState());
+    }
+
+    @Test
+    void manualRequestIsHeldBackUntilAnAutomaticSweepFinishes() {
+        StubHost host = new StubHost();
+        CleanupCoordinator coordinator = new CleanupCoordinator(host, null, INTERVAL, () -> INTERVAL, 0);
+        Sender sender = new Sender();
+
+        coordinator.request(CleanupTrigger.THRESHOLD, null);
+        host.runTasks();
+        Sweep automatic = host.onlySweep();
+
+        coordinator.request(CleanupTrigger.MANUAL, sender.proxy());
+        coordinator.request(CleanupTrigger.SCHEDULED, null); // Covered by the running sweep
+        assertEquals(CleanupCoordinator.State.RUNNING, coordinator.getState());
+        assertEquals(1, coordinator.getCoalescedCount());
+
+        automatic.onComplete().accept(3);
+        assertEquals(0, sender.results, "the manual request was not part of the automatic sweep");
+        assertEquals(CleanupCoordinator.State.PENDING, coordinator.getState());
+
+        host.runTasks();
+        Sweep manual = host.onlySweep();
+        assertEquals(CleanupTrigger.MANUAL, manual.trigger());
+        assertFalse(manual.announce());
+
+        manual.onComplete().accept(7);
+        assertEquals(1, sender.results);
+        assertEquals(CleanupCoordinator.State.IDLE, coordinator.getState());
+    }
+
+    @Test
+    void manualRequestJoinsARunningManualSweep() {
+        StubHost host = new StubHost();
+        CleanupCoordinator coordinator = new CleanupCoordinator(host, null, INTERVAL, () -> INTERVAL, 0);
+        Sender first = new Sender();
+        Sender second = new Sender();
+
+        coordinator.request(CleanupTrigger.MANUAL, first.proxy());
+        host.runTasks();
+        Sweep sweep = host.onlySweep();
+        coordinator.request(CleanupTrigger.MANUAL, second.proxy());
+
+        sweep.onComplete().accept(5);
+        assertEquals(1, first.results);
+        assertEquals(1, second.results);
+        assertEquals(CleanupCoordinator.State.IDLE, coordinator.getState());
+        assertTrue(host.sweeps.isEmpty());
+    }
+
+    @Test
+    void requestsDuringTheCooldownRunAsOneSweepWhenItEnds() {
+        StubHost host = new StubHost();
+        CleanupCoordinator coordinator = new CleanupCoordinator(host, null, INTERVAL, () -> INTERVAL, 100);
+        Sender sender = new Sender();
+
+        coordinator.request(CleanupTrigger.SCHEDULED, null);
+        host.runTasks();
+        host.onlySweep().onComplete().accept(0);
+        assertEquals(CleanupCoordinator.State.COOLDOWN, coordinator.getState());
+        assertEquals(List.of(100L), host.delays);
+
+        coordinator.request(CleanupTrigger.THRESHOLD, null);
+        coordinator.request(CleanupTrigger.MANUAL, sender.proxy());
+        assertEquals(1, sender.queued, "the sender is told the request waits for the cooldown");
+        assertTrue(host.tasks.isEmpty());
+        assertTrue(host.sweeps.isEmpty());
+        assertEquals(1, coordinator.getCoalescedCount());
+
+        host.runLater();
+        Sweep sweep = host.onlySweep();
+        assertEquals(CleanupTrigger.MANUAL, sweep.trigger());
+        assertTrue(sweep.announce());
+
+        sweep.onComplete().accept(9);
+        assertEquals(1, sender.results);
+        assertEquals(CleanupCoordinator.State.COOLDOWN, coordinator.getState());
+
+        // Nothing came in this time, so the cooldown ends without a sweep
+        host.runLater();
+        assertEquals(CleanupCoordinator.State.IDLE, coordinator.getState());
+        assertTrue(host.sweeps.isEmpty());
+    }
+
+    @Test
+    void manualSweepDropsAPendingWorldSweepOnlyWhenNobodyWaitsForIt() {
+        StubHost worldHost = new StubHost();
+        CleanupCoordinator unattended = new CleanupCoordinator(worldHost, "world_nether", INTERVAL, () -> INTERVAL, 0);
+        CleanupCoordinator awaited = new CleanupCoordinator(worldHost, "world_the_end", INTERVAL, () -> INTERVAL, 0);
+        StubHost sharedHost = new StubHost(unattended, awaited);
+        CleanupCoordinator shared = new CleanupCoordinator(sharedHost, null, INTERVAL, () -> INTERVAL, 0);
+        Sender sender = new Sender();
+
+        unattended.request(CleanupTrigger.THRESHOLD, null);
+        awaited.request(CleanupTrigger.MANUAL, sender.proxy());
+        shared.request(CleanupTrigger.MANUAL, null);
+        sharedHost.runTasks();
+        sharedHost.onlySweep().onComplete().accept(20);
+
+        assertEquals(CleanupCoordinator.State.IDLE, unattended.getState());
+        assertEquals(CleanupCoordinator.State.PENDING, awaited.getState());
+
+        // The dropped sweep's start task finds nothing to do; the awaited one still runs
+        worldHost.runTasks();
+        Sweep sweep = worldHost.onlySweep();
+        assertEquals("world_the_end", sweep.worldName());
+        sweep.onComplete().accept(1);
+        assertEquals(1, sender.results);
+    }
+
+    @Test
+    void sweepThatFailsAfterReportingFinishesOnce() {
+        StubHost host = new StubHost();
+        host.failure = onComplete -> {
+            onComplete.accept(4);
+            throw new IllegalStateException("boom");
+        };
+        CleanupCoordinator coordinator = new CleanupCoordinator(host, null, INTERVAL, () -> INTERVAL, 100);
+        Sender sender = new Sender();
+
+        coordinator.request(CleanupTrigger.MANUAL, sender.proxy());
+        host.runTasks();
+
+        assertEquals(1, sender.results);
+        assertEquals(List.of(100L), host.delays, "a second finish would schedule a second cooldown");
+        assertEquals(CleanupCoordinator.State.COOLDOWN, coordinator.getState());
+    }
+
+    @Test
+    void sweepThatFailsBeforeReportingStillFinishes() {
+        StubHost host = new StubHost();
+        host.failure = onComplete -> {
+            throw new IllegalStateException("boom");
+        };
+        CleanupCoordinator coordinator = new CleanupCoordinator(host, null, INTERVAL, () -> INTERVAL, 0);
+        Sender sender = new Sender();
+
+        coordinator.request(CleanupTrigger.MANUAL, sender.proxy());
+        host.runTasks();
+
+        assertEquals(1, sender.results);
+        assertEquals(CleanupCoordinator.State.IDLE, coordinator.getState());
+    }
+
+    private record Sweep(String worldName, CleanupTrigger trigger, boolean announce, IntConsumer onComplete) {
+    }
+
+    /**
+     * Queues tasks and sweeps; a sweep only finishes when the test completes it, unless {@link #failure} is set.
+     */
+    private static final class StubHost implements CleanupCoordinator.Host {
+
+        private static final Logger LOGGER = Logger.getAnonymousLogger();
+
+        static {
+            LOGGER.setUseParentHandlers(false);
+            LOGGER.setLevel(Level.OFF);
+        }
+
+        final Deque<Runnable> tasks = new ArrayDeque<>();
+        final Deque<Runnable> later = new ArrayDeque<>();
+        final List<Long> delays = new ArrayList<>();
+        final Deque<Sweep> sweeps = new ArrayDeque<>();
+        final List<CleanupCoordinator> worldCoordinators;
+        Consumer<IntConsumer> failure; // Runs the sweep straight away instead of queueing it
+
+        StubHost(CleanupCoordinator... worldCoordinators) {
+            this.worldCoordinators = List.of(worldCoordinators);
+        }
+
+        void runTasks() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+
+        void runLater() {
+            later.poll().run();
+        }
+
+        Sweep onlySweep() {
+            assertEquals(1, sweeps.size());
+            return sweeps.poll();
+        }
+
+        @Override
+        public void runGlobal(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void runGlobalLater(Runnable task, long delayTicks) {
+            later.add(task);
+            delays.add(delayTicks);
+        }
+
+        @Override
+        public void sweep(String worldName, CleanupTrigger trigger, boolean announce, IntConsumer onComplete) {
+            if (failure != null) {
+                failure.accept(onComplete);
+                return;
+            }
+            sweeps.add(new Sweep(worldName, trigger, announce, onComplete));
+        }
+
+        @Override
+        public MessageTemplate getMessageTemplate(String key) {
+            return MessageTemplate.compile(key + " %count%");
+        }
+
+        @Override
+        public Collection<CleanupCoordinator> getWorldCoordinators() {
+            return worldCoordinators;
+        }
+
+        @Override
+        public Logger getLogger() {
+            return LOGGER;
+        }
+    }
+
+    /**
+     * Counts the cooldown notices and the results a command sender receives.
+     */
+    private static final class Sender {
+
+        int queued;
+        int results;
+
+        CommandSender proxy() {
+            CommandSender.Spigot spigot = new CommandSender.Spigot() {
+                @Override
+                public void sendMessage(net.md_5.bungee.api.chat.BaseComponent component) {
+                    results++;
+                }
+            };
+            return (CommandSender) Proxy.newProxyInstance(CommandSender.class.getClassLoader(),
+                    new Class<?>[]{CommandSender.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "sendMessage" -> {
+                            queued++;
+                            yield null;
+                        }
+                        case "spigot" -> spigot;
+                        case "getName" -> "tester";
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
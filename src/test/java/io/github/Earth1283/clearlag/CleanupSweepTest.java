@@ -0,0 +1,193 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Exact removal counts for the cleanup sweep and the counting pass, on fake worlds with a known population.
+ * Every expected number is worked out by hand from that population, never with {@link EntityRules}.
+ */
+class CleanupSweepTest {
+
+    private static final String RULES = """
+            entities-to-clear:
+              - ZOMBIE
+              - WOLF
+            cleanup-rules:
+              skip-named: %s
+              skip-leashed: %s
+              skip-tamed: %s
+            """;
+
+    private FakeWorlds.FakeWorld world;
+    private final List<FakeWorlds.FakeEntity> named = new ArrayList<>();
+    private final List<FakeWorlds.FakeEntity> leashed = new ArrayList<>();
+    private final List<FakeWorlds.FakeEntity> tamed = new ArrayList<>();
+
+    /**
+     * 10 plain zombies, 3 named zombies, 2 leashed zombies, 5 wild wolves, 2 tamed wolves and 4 cows: 26 entities.
+     */
+    @BeforeEach
+    void populate() {
+        world = new FakeWorlds.FakeWorld("world");
+        for (int i = 0; i < 10; i++) {
+            world.spawn(EntityType.ZOMBIE, i * 3 + 0.5, 0.5, null);
+        }
+        for (int i = 0; i < 3; i++) {
+            named.add(world.spawn(EntityType.ZOMBIE, 0.5, i * 3 + 0.5, "Bob"));
+        }
+        for (int i = 0; i < 2; i++) {
+            leashed.add(world.spawn(EntityType.ZOMBIE, -i * 3 - 0.5, 0.5, null).leash());
+        }
+        for (int i = 0; i < 5; i++) {
+            world.spawn(EntityType.WOLF, 40.5, i * 3 + 0.5, null);
+        }
+        for (int i = 0; i < 2; i++) {
+            tamed.add(world.spawn(EntityType.WOLF, 50.5, i * 3 + 0.5, null).tame());
+        }
+        for (int i = 0; i < 4; i++) {
+            world.spawn(EntityType.COW, 60.5, i * 3 + 0.5, null);
+        }
+    }
+
+    @Test
+    void sweepRemovesEveryMatchingEntity() {
+        int removed = sweep(rules(true, true, true), 0);
+
+        // 10 plain zombies and 5 wild wolves
+        assertEquals(15, removed);
+        assertEquals(11, world.liveCount());
+        assertNoneRemoved(named);
+        assertNoneRemoved(leashed);
+        assertNoneRemoved(tamed);
+    }
+
+    @Test
+    void sweepWithoutSkipsRemovesNamedLeashedAndTamed() {
+        int removed = sweep(rules(false, false, false), 0);
+
+        // Every zombie and wolf; only the cows stay
+        assertEquals(22, removed);
+        assertEquals(4, world.liveCount());
+    }
+
+    @Test
+    void eachSkipOnlyProtectsItsOwnEntities() {
+        // 22 zombies and wolves, minus the 3 named ones
+        assertEquals(19, sweep(rules(true, false, false), 0));
+        assertNoneRemoved(named);
+        world.reset();
+
+        // Minus the 2 leashed zombies
+        assertEquals(20, sweep(rules(false, true, false), 0));
+        assertNoneRemoved(leashed);
+        world.reset();
+
+        // Minus the 2 tamed wolves
+        assertEquals(20, sweep(rules(false, false, true), 0));
+        assertNoneRemoved(tamed);
+    }
+
+    @Test
+    void missingCleanupRulesKeepsTheOldBehaviour() {
+        // A config.yml from before cleanup-rules existed removes every entity of a listed type
+        EntityRules rules = load("""
+                entities-to-clear:
+                  - ZOMBIE
+                  - WOLF
+                """);
+
+        assertEquals(22, sweep(rules, 0));
+        assertEquals(4, world.liveCount());
+    }
+
+    @Test
+    void densityKeepLeavesTheCap() {
+        int removed = sweep(rules(true, true, true), 6);
+
+        // 15 matching entities, 6 of them kept
+        assertEquals(9, removed);
+        assertEquals(17, world.liveCount());
+        assertNoneRemoved(named);
+    }
+
+    @Test
+    void densityKeepAboveTheMatchesRemovesNothing() {
+        assertEquals(0, sweep(rules(true, true, true), 15));
+        assertEquals(26, world.liveCount());
+    }
+
+    @Test
+    void countMatchingCountsWithoutRemoving() {
+        assertEquals(15, EntityCountingTask.countMatching(rules(true, true, true), world.getEntities()));
+        assertEquals(22, EntityCountingTask.countMatching(rules(false, false, false), world.getEntities()));
+        assertEquals(26, world.liveCount());
+    }
+
+    @Test
+    void sweepRecordsMetricsPerTypeAndWorld() {
+        CleanupMetrics metrics = new CleanupMetrics();
+        CleanupMetrics.Run run = metrics.startRun();
+        CleanupTask.sweep(rules(true, true, true), null, run, null, world.world(), world.getEntities(), 0);
+        run.finish();
+
+        assertEquals(Map.of("WOLF", 5L, "ZOMBIE", 10L), metrics.removedByType());
+        // Every entity is examined, including the protected ones and the cows
+        assertEquals(Map.of("COW", 4L, "WOLF", 7L, "ZOMBIE", 15L), metrics.examinedByType());
+        CleanupMetrics.WorldTotals totals = metrics.worldTotals().get("world");
+        assertEquals(26, totals.examined());
+        assertEquals(15, totals.removed());
+        assertEquals(1, metrics.cleanupRuns());
+    }
+
+    @Test
+    void syntheticWorldsMatchTheirIndependentCount() {
+        SyntheticWorlds synthetic = SyntheticWorlds.generate(SyntheticWorlds.Mix.MIXED, 20_000, 4);
+        EntityRules rules = SyntheticWorlds.defaultRules();
+        CleanupMetrics.Run run = new CleanupMetrics().startRun();
+
+        int removed = 0;
+        for (FakeWorlds.FakeWorld synthWorld : synthetic.worlds()) {
+            removed += CleanupTask.sweep(rules, null, run, null, synthWorld.world(), synthWorld.getEntities(), 0);
+        }
+
+        assertEquals(synthetic.expectedMatches(), removed);
+        assertEquals(20_000 - synthetic.expectedMatches(), synthetic.liveCount());
+    }
+
+    private int sweep(EntityRules rules, int keep) {
+        CleanupMetrics.Run run = new CleanupMetrics().startRun();
+        return CleanupTask.sweep(rules, null, run, null, world.world(), world.getEntities(), keep);
+    }
+
+    private static void assertNoneRemoved(List<FakeWorlds.FakeEntity> entities) {
+        for (FakeWorlds.FakeEntity entity : entities) {
+            assertFalse(entity.isRemoved(), entity + " should have been kept");
+        }
+    }
+
+    private static EntityRules rules(boolean skipNamed, boolean skipLeashed, boolean skipTamed) {
+        return load(RULES.formatted(skipNamed, skipLeashed, skipTamed));
+    }
+
+    private static EntityRules load(String yaml) {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(yaml);
+        } catch (InvalidConfigurationException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return EntityRules.load(config, null, "test", Logger.getLogger("clearlag-test"));
+    }
+}
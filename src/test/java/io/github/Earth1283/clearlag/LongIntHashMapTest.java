@@ -0,0 +1,159 @@
+package io.github.Earth1283.clearlag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Lookups, counter semantics and backward-shift deletion of {@link LongIntHashMap}.
+ * Deletion is the subtle part: removing an entry from the middle of a probe cluster must move the entries
+ * after it back, or they become unreachable. The cluster tests build such clusters on purpose by picking
+ * keys that hash to the same slot, using the same mixing function as the map.
+ */
+class LongIntHashMapTest {
+
+    // LongIntHashMap(20) allocates 64 slots and only grows past 38 entries
+    private static final int EXPECTED_SIZE = 20;
+    private static final int MASK = 63;
+
+    @Test
+    void putGetAndOverwrite() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(42L, 7);
+        map.put(-5L, 3);
+        map.put(42L, 9);
+
+        assertEquals(9, map.get(42L));
+        assertEquals(3, map.get(-5L));
+        assertEquals(0, map.get(1L));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void addToRemovesAtZeroAndIgnoresMissingKeys() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertEquals(2, map.addTo(10L, 2));
+        assertEquals(5, map.addTo(10L, 3));
+        assertEquals(0, map.addTo(10L, -5));
+        assertEquals(0, map.size());
+
+        // Nothing to subtract from, so nothing is inserted
+        assertEquals(0, map.addTo(11L, -1));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void zeroKeyIsStoredSeparately() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(0L, 4);
+        map.put(1L, 1);
+        assertEquals(4, map.get(0L));
+        assertEquals(2, map.size());
+
+        map.put(0L, 0);
+        assertEquals(0, map.get(0L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void removingTheHeadOfAWrappingClusterShiftsTheRestBack() {
+        // Three keys whose home is the last slot, so the cluster wraps around to slots 0 and 1,
+        // then a key whose home is slot 0 and which ends up behind them in slot 2
+        long[] last = keysWithHome(MASK, 3);
+        long first = keysWithHome(0, 1)[0];
+        LongIntHashMap map = new LongIntHashMap(EXPECTED_SIZE);
+        map.put(last[0], 1);
+        map.put(last[1], 2);
+        map.put(last[2], 3);
+        map.put(first, 4);
+
+        map.put(last[0], 0);
+
+        assertEquals(0, map.get(last[0]));
+        assertEquals(2, map.get(last[1]));
+        assertEquals(3, map.get(last[2]));
+        assertEquals(4, map.get(first));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void removingFromTheMiddleOfAClusterKeepsEveryOtherKeyReachable() {
+        long[] cluster = keysWithHome(10, 5);
+        long neighbour = keysWithHome(12, 1)[0]; // Displaced by the cluster, must not move before its home
+        LongIntHashMap map = new LongIntHashMap(EXPECTED_SIZE);
+        for (int i = 0; i < cluster.length; i++) {
+            map.put(cluster[i], i + 1);
+        }
+        map.put(neighbour, 100);
+
+        map.put(cluster[2], 0);
+        map.put(cluster[0], 0);
+
+        assertEquals(0, map.get(cluster[0]));
+        assertEquals(2, map.get(cluster[1]));
+        assertEquals(0, map.get(cluster[2]));
+        assertEquals(4, map.get(cluster[3]));
+        assertEquals(5, map.get(cluster[4]));
+        assertEquals(100, map.get(neighbour));
+        assertEquals(4, map.size());
+
+        // The freed slots are reused, and every key is still visited exactly once
+        map.put(cluster[0], 7);
+        Map<Long, Integer> visited = new HashMap<>();
+        map.forEach((key, value) -> assertNull(visited.put(key, value)));
+        assertEquals(Map.of(cluster[0], 7, cluster[1], 2, cluster[3], 4, cluster[4], 5, neighbour, 100), visited);
+    }
+
+    @Test
+    void randomOperationsMatchAHashMap() {
+        Random random = new Random(1234);
+        LongIntHashMap map = new LongIntHashMap(8);
+        Map<Long, Integer> expected = new HashMap<>();
+
+        // A small key range keeps clusters long and makes removals frequent
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(300) - 20;
+            int delta = random.nextInt(7) - 3;
+            int updated = map.addTo(key, delta);
+            int reference = expected.getOrDefault(key, 0) + delta;
+            if (reference <= 0) {
+                expected.remove(key);
+                reference = 0;
+            } else {
+                expected.put(key, reference);
+            }
+            assertEquals(reference, updated, "addTo(" + key + ", " + delta + ")");
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = -20; key < 280; key++) {
+            assertEquals(expected.getOrDefault(key, 0), map.get(key), "get(" + key + ")");
+        }
+    }
+
+    /**
+     * Finds non-zero keys whose home slot in a 64-slot map is {@code home}.
+     */
+    private static long[] keysWithHome(int home, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; key++) {
+            if ((mix(key) & MASK) == home) {
+                keys.add(key);
+            }
+        }
+        return keys.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // Same mixing function as LongIntHashMap
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.Earth1283.clearlag;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Placeholder slots of {@link MessageTemplate}: each {@code %count%} and {@code %limit%} is replaced in place,
+ * wherever it appears and however often, and any other text between percent signs is left alone.
+ */
+class MessageTemplateTest {
+
+    @Test
+    void substitutesCountAndLimit() {
+        MessageTemplate template = MessageTemplate.compile("实体数量 %count% 超过了 %limit%!");
+        assertEquals("实体数量 1200 超过了 1000!", template.render(1200, 1000));
+    }
+
+    @Test
+    void placeholdersAtTheEdgesAndNextToEachOther() {
+        MessageTemplate template = MessageTemplate.compile("%count%%limit%-%count%");
+        assertEquals("12-1", template.render(1, 2));
+    }
+
+    @Test
+    void repeatedPlaceholdersAllGetTheirValue() {
+        MessageTemplate template = MessageTemplate.compile("%limit% / %count% / %limit% / %count%");
+        assertEquals("8 / 3 / 8 / 3", template.render(3, 8));
+    }
+
+    @Test
+    void unknownPlaceholdersAndLonePercentSignsStayLiteral() {
+        MessageTemplate template = MessageTemplate.compile("100% %player% %count% %");
+        assertEquals("100% %player% 5 %", template.render(5));
+    }
+
+    @Test
+    void renderWithOnlyACountFillsLimitWithZero() {
+        assertEquals("5/0", MessageTemplate.compile("%count%/%limit%").render(5));
+    }
+
+    @Test
+    void withoutPlaceholdersRenderReturnsTheTextItself() {
+        MessageTemplate template = MessageTemplate.compile("清理完成");
+        assertEquals("清理完成", template.text());
+        assertSame(template.text(), template.render(1, 2));
+    }
+
+    @Test
+    void colorCodesAreTranslatedOnceAtCompileTime() {
+        MessageTemplate template = MessageTemplate.compile("&c警告: &e%count%");
+        assertEquals("§c警告: §e%count%", template.text());
+        assertEquals("§c警告: §e42", template.render(42));
+    }
+}
@@ -0,0 +1,212 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Selection by {@link PartialCleanup.VictimHeap}: whatever the order of the offers, exactly the
+ * {@code limit} highest scores are kept. The policy tests score entities the way each
+ * {@link PartialCleanup.Policy} does and check the heap picks the entities that policy should evict.
+ */
+class VictimHeapTest {
+
+    private final FakeWorlds.FakeWorld world = new FakeWorlds.FakeWorld("world");
+
+    @Test
+    void keepsTheHighestScoresWhateverTheOrder() {
+        List<Entity> entities = spawn(100);
+        List<Integer> order = shuffled(100, 1);
+
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(10);
+        for (int i : order) {
+            heap.offer(i, entities.get(i));
+        }
+
+        // Entity i was offered with score i, so the top ten are the last ten entities
+        assertEquals(Set.copyOf(entities.subList(90, 100)), new HashSet<>(heap.entities()));
+    }
+
+    @Test
+    void keepsEverythingWhenUnderTheLimit() {
+        List<Entity> entities = spawn(5);
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(1000);
+        for (int i = 0; i < entities.size(); i++) {
+            heap.offer(i, entities.get(i));
+        }
+
+        assertEquals(Set.copyOf(entities), new HashSet<>(heap.entities()));
+    }
+
+    @Test
+    void growsPastItsInitialCapacity() {
+        List<Entity> entities = spawn(1000);
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(300);
+        for (int i : shuffled(1000, 2)) {
+            heap.offer(i, entities.get(i));
+        }
+
+        assertEquals(Set.copyOf(entities.subList(700, 1000)), new HashSet<>(heap.entities()));
+    }
+
+    @Test
+    void mergingBatchHeapsKeepsTheOverallTop() {
+        // Like scoring: each batch fills its own heap, then they are merged into the shared one
+        List<Entity> entities = spawn(60);
+        PartialCleanup.VictimHeap shared = new PartialCleanup.VictimHeap(8);
+        List<Integer> order = shuffled(60, 3);
+        for (int batch = 0; batch < 3; batch++) {
+            PartialCleanup.VictimHeap local = new PartialCleanup.VictimHeap(8);
+            for (int i : order.subList(batch * 20, batch * 20 + 20)) {
+                local.offer(i, entities.get(i));
+            }
+            shared.addAll(local);
+        }
+
+        assertEquals(Set.copyOf(entities.subList(52, 60)), new HashSet<>(shared.entities()));
+    }
+
+    @Test
+    void equalScoresNeverExceedTheLimit() {
+        List<Entity> entities = spawn(50);
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(7);
+        for (Entity entity : entities) {
+            heap.offer(5L, entity);
+        }
+
+        assertEquals(7, heap.entities().size());
+    }
+
+    @Test
+    void oldestEvictsTheLongestLived() {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // Ages out of order: entity i has lived (i * 7919 % 40) * 100 ticks
+            entities.add(world.spawn(EntityType.ZOMBIE, i, 0, null).age(i * 7919 % 40 * 100).entity());
+        }
+
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(5);
+        for (Entity entity : entities) {
+            heap.offer(entity.getTicksLived(), entity);
+        }
+
+        Set<Integer> ages = new HashSet<>();
+        for (Entity entity : heap.entities()) {
+            ages.add(entity.getTicksLived());
+        }
+        assertEquals(Set.of(3500, 3600, 3700, 3800, 3900), ages);
+    }
+
+    @Test
+    void farthestEvictsTheEntitiesFarthestFromTheirNearestPlayer() {
+        // Players at x 0 and x 60; entities every 10 blocks from -50 to 150
+        double[] players = {0, 64, 0, 60, 64, 0};
+        List<Entity> far = new ArrayList<>();
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(4);
+        for (int x = -50; x <= 150; x += 10) {
+            Entity entity = world.spawn(EntityType.ZOMBIE, x, 0, null).entity();
+            if (x >= 120) {
+                far.add(entity);
+            }
+            heap.offer(PartialCleanup.nearestPlayerDistanceSquared(entity.getLocation(), players), entity);
+        }
+
+        // x -50 is farther from the first player than anything between them, but x 120 and up are farther from the second
+        assertEquals(Set.copyOf(far), new HashSet<>(heap.entities()));
+    }
+
+    @Test
+    void farthestWithoutPlayersRanksEveryEntityTheSame() {
+        List<Entity> entities = spawn(10);
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(3);
+        for (Entity entity : entities) {
+            long score = PartialCleanup.nearestPlayerDistanceSquared(entity.getLocation(), new double[0]);
+            assertEquals(Long.MAX_VALUE, score);
+            heap.offer(score, entity);
+        }
+
+        assertEquals(3, heap.entities().size());
+    }
+
+    @Test
+    void densestEvictsFromTheFullestChunkFirstThenTheOldest() {
+        // Chunk 0 holds five young entities, chunk 1 three old ones
+        List<Entity> dense = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            dense.add(world.spawn(EntityType.ZOMBIE, i, 0, null).age(10 + i).entity());
+        }
+        Entity oldestSparse = world.spawn(EntityType.ZOMBIE, 20, 0, null).age(90_000).entity();
+        world.spawn(EntityType.ZOMBIE, 21, 0, null).age(50_000);
+        world.spawn(EntityType.ZOMBIE, 22, 0, null).age(40_000);
+
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(6);
+        for (Entity entity : world.getEntities()) {
+            int inChunk = entity.getLocation().getBlockX() >> 4 == 0 ? 5 : 3;
+            heap.offer(PartialCleanup.rankThenAge(inChunk, entity.getTicksLived()), entity);
+        }
+
+        List<Entity> expected = new ArrayList<>(dense);
+        expected.add(oldestSparse);
+        assertEquals(Set.copyOf(expected), new HashSet<>(heap.entities()));
+    }
+
+    @Test
+    void hotspotEvictsFromTheFastestSpawningChunkFirstThenTheOldest() {
+        // Spawn rates in tenths per minute plus one, as scoring stores them: 12.5, 0.5 and none
+        int[] rates = {126, 6, 1};
+        List<List<Entity>> chunks = new ArrayList<>();
+        for (int chunk = 0; chunk < rates.length; chunk++) {
+            List<Entity> inChunk = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                // The quiet chunks hold the oldest entities, which must not outrank a hotter chunk
+                int age = (rates.length - chunk) * 1_000_000 + i;
+                inChunk.add(world.spawn(EntityType.ZOMBIE, chunk * 16 + i, 0, null).age(age).entity());
+            }
+            chunks.add(inChunk);
+        }
+
+        PartialCleanup.VictimHeap heap = new PartialCleanup.VictimHeap(6);
+        for (Entity entity : world.getEntities()) {
+            int rate = rates[entity.getLocation().getBlockX() >> 4];
+            heap.offer(PartialCleanup.rankThenAge(rate, entity.getTicksLived()), entity);
+        }
+
+        // The whole hottest chunk, then the two oldest of the next one
+        List<Entity> expected = new ArrayList<>(chunks.get(0));
+        expected.addAll(chunks.get(1).subList(2, 4));
+        assertEquals(Set.copyOf(expected), new HashSet<>(heap.entities()));
+    }
+
+    @Test
+    void rankDominatesAgeAtTheExtremes() {
+        assertTrue(PartialCleanup.rankThenAge(2, 0) > PartialCleanup.rankThenAge(1, Integer.MAX_VALUE));
+        assertTrue(PartialCleanup.rankThenAge(1, 1) > PartialCleanup.rankThenAge(1, 0));
+    }
+
+    private List<Entity> spawn(int count) {
+        List<Entity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entities.add(world.spawn(EntityType.ZOMBIE, i, 0, null).entity());
+        }
+        return entities;
+    }
+
+    private static List<Integer> shuffled(int count, long seed) {
+        List<Integer> order = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(seed));
+        return order;
+    }
+}
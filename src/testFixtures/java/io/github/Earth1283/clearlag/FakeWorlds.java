@@ -0,0 +1,266 @@
+package io.github.Earth1283.clearlag;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Offline stand-ins for {@link World} and {@link Entity}, built with dynamic proxies so no server is needed.
+ * Only the methods the cleanup and counting code calls are backed by state; everything else returns a
+ * default value. Removing an entity only marks it, so a world can be {@link FakeWorld#reset() reset}
+ * between benchmark invocations. Shared by the benchmarks and the unit tests.
+ */
+final class FakeWorlds {
+
+    private FakeWorlds() {
+    }
+
+    /**
+     * A fake world and the entities in it.
+     */
+    static final class FakeWorld {
+        private final String name;
+        private final UUID uid = UUID.randomUUID();
+        private final List<FakeEntity> entities = new ArrayList<>();
+        private final World proxy;
+
+        FakeWorld(String name) {
+            this.name = name;
+            this.proxy = (World) Proxy.newProxyInstance(FakeWorlds.class.getClassLoader(), new Class<?>[]{World.class}, this::invoke);
+        }
+
+        World world() {
+            return proxy;
+        }
+
+        /**
+         * Adds an entity to the world.
+         *
+         * @param type       The entity type.
+         * @param x          Block x coordinate.
+         * @param z          Block z coordinate.
+         * @param customName Custom name, or null.
+         * @return The fake entity.
+         */
+        FakeEntity spawn(EntityType type, double x, double z, String customName) {
+            FakeEntity entity = new FakeEntity(this, type, x, 64, z, customName);
+            entities.add(entity);
+            return entity;
+        }
+
+        /**
+         * Brings back every removed entity.
+         */
+        void reset() {
+            for (FakeEntity entity : entities) {
+                entity.removed = false;
+            }
+        }
+
+        int liveCount() {
+            int count = 0;
+            for (FakeEntity entity : entities) {
+                if (!entity.removed) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Like CraftWorld, returns a fresh copy of the live entities.
+         */
+        List<Entity> getEntities() {
+            List<Entity> live = new ArrayList<>(entities.size());
+            for (FakeEntity entity : entities) {
+                if (!entity.removed) {
+                    live.add(entity.proxy);
+                }
+            }
+            return live;
+        }
+
+        private Object invoke(Object self, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getEntities":
+                    return getEntities();
+                case "getName":
+                    return name;
+                case "getUID":
+                    return uid;
+                case "getPlayers":
+                    return Collections.emptyList();
+                case "hashCode":
+                    return uid.hashCode();
+                case "equals":
+                    return self == args[0];
+                case "toString":
+                    return "FakeWorld{" + name + "}";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    /**
+     * State behind a fake entity proxy.
+     */
+    static final class FakeEntity {
+        private final FakeWorld world;
+        private final EntityType type;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final Component customName;
+        private final String customNameText;
+        private final int entityId;
+        private final Entity proxy;
+        private boolean removed;
+        private boolean leashed;
+        private boolean tamed;
+        private int ticksLived;
+
+        private static int nextEntityId = 1;
+
+        private FakeEntity(FakeWorld world, EntityType type, double x, double y, double z, String customName) {
+            this.world = world;
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.customNameText = customName;
+            this.customName = customName == null ? null : Component.text(customName);
+            this.entityId = nextEntityId++;
+
+            // Implement the type's own interface so instanceof checks (LivingEntity, Tameable, ...) behave
+            Class<?> entityClass = type.getEntityClass();
+            Class<?> iface = entityClass != null && entityClass.isInterface() ? entityClass : Entity.class;
+            this.proxy = (Entity) Proxy.newProxyInstance(FakeWorlds.class.getClassLoader(), new Class<?>[]{iface}, handler());
+        }
+
+        Entity entity() {
+            return proxy;
+        }
+
+        boolean isRemoved() {
+            return removed;
+        }
+
+        /**
+         * Puts the entity on a lead. Only {@link org.bukkit.entity.LivingEntity} types report it.
+         *
+         * @return This entity.
+         */
+        FakeEntity leash() {
+            leashed = true;
+            return this;
+        }
+
+        /**
+         * Tames the entity. Only {@link org.bukkit.entity.Tameable} types report it.
+         *
+         * @return This entity.
+         */
+        FakeEntity tame() {
+            tamed = true;
+            return this;
+        }
+
+        /**
+         * Sets how long the entity has lived.
+         *
+         * @return This entity.
+         */
+        FakeEntity age(int ticks) {
+            ticksLived = ticks;
+            return this;
+        }
+
+        private InvocationHandler handler() {
+            return (self, method, args) -> {
+                switch (method.getName()) {
+                    case "getType":
+                        return type;
+                    case "remove":
+                        removed = true;
+                        return null;
+                    case "isValid":
+                        return !removed;
+                    case "isDead":
+                        return removed;
+                    case "getWorld":
+                        return world.proxy;
+                    case "getLocation":
+                        if (args != null && args.length == 1 && args[0] instanceof Location location) {
+                            location.setWorld(world.proxy);
+                            location.setX(x);
+                            location.setY(y);
+                            location.setZ(z);
+                            return location;
+                        }
+                        return new Location(world.proxy, x, y, z);
+                    case "customName":
+                        return customName;
+                    case "getCustomName":
+                        return customNameText;
+                    case "getRemoveWhenFarAway":
+                        return true;
+                    case "isLeashed":
+                        return leashed;
+                    case "isTamed":
+                        return tamed;
+                    case "getTicksLived":
+                        return ticksLived;
+                    case "getEntityId":
+                        return entityId;
+                    case "hashCode":
+                        return entityId;
+                    case "equals":
+                        return self == args[0];
+                    case "toString":
+                        return "FakeEntity{" + type + "#" + entityId + "}";
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            };
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        return 0d;
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.Earth1283.clearlag;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Generates reproducible synthetic worlds for the benchmarks, and the rules from the shipped config.yml.
+ * The generator also computes how many entities a cleanup with those rules must remove, so each
+ * benchmark can check that the code it measures still gives the right answer. The expected counts come
+ * from the raw {@code entities-to-clear} list and {@code skip-named} flag, not from {@link EntityRules},
+ * so a broken rule compiler can't agree with itself.
+ */
+final class SyntheticWorlds {
+
+    /**
+     * Entity mix of a generated world.
+     */
+    enum Mix {
+        /** Almost only listed hostile mobs: every entity passes the type check. */
+        HOSTILE(0.95),
+        /** A typical survival server: hostiles, animals, villagers and drops. */
+        MIXED(0.40),
+        /** Mostly farm animals: the type check rejects nearly everything. */
+        PASSIVE(0.05);
+
+        private final double hostileShare;
+
+        Mix(double hostileShare) {
+            this.hostileShare = hostileShare;
+        }
+    }
+
+    private static final EntityType[] HOSTILE = {
+            EntityType.ZOMBIE, EntityType.SKELETON, EntityType.SPIDER, EntityType.CREEPER,
+            EntityType.ENDERMAN, EntityType.WITCH, EntityType.DROWNED, EntityType.SLIME
+    };
+    private static final EntityType[] OTHER = {
+            EntityType.COW, EntityType.SHEEP, EntityType.PIG, EntityType.CHICKEN,
+            EntityType.VILLAGER, EntityType.ITEM, EntityType.EXPERIENCE_ORB, EntityType.ARMOR_STAND
+    };
+
+    private static final double NAMED_SHARE = 0.05; // Share of hostiles with a name tag, which the rules keep
+    private static final int SPREAD_BLOCKS = 2048; // Entities are spread over a square this wide per world
+
+    private final List<FakeWorlds.FakeWorld> worlds = new ArrayList<>();
+    private final int expectedMatches;
+    private final int expectedListed;
+
+    private SyntheticWorlds(Set<EntityType> listed, boolean skipNamed, Mix mix, int entityCount, int worldCount, long seed) {
+        Random random = new Random(seed);
+        int matches = 0;
+        int listedCount = 0;
+        for (int w = 0; w < worldCount; w++) {
+            worlds.add(new FakeWorlds.FakeWorld("world_" + w));
+        }
+        for (int i = 0; i < entityCount; i++) {
+            FakeWorlds.FakeWorld world = worlds.get(i % worldCount);
+            double x = random.nextInt(SPREAD_BLOCKS) - SPREAD_BLOCKS / 2 + 0.5;
+            double z = random.nextInt(SPREAD_BLOCKS) - SPREAD_BLOCKS / 2 + 0.5;
+            if (random.nextDouble() < mix.hostileShare) {
+                EntityType type = HOSTILE[random.nextInt(HOSTILE.length)];
+                boolean named = random.nextDouble() < NAMED_SHARE;
+                world.spawn(type, x, z, named ? "Bob" : null);
+                if (listed.contains(type)) {
+                    listedCount++;
+                    if (!named || !skipNamed) {
+                        matches++;
+                    }
+                }
+            } else {
+                EntityType type = OTHER[random.nextInt(OTHER.length)];
+                world.spawn(type, x, z, null);
+                if (listed.contains(type)) {
+                    listedCount++;
+                    matches++;
+                }
+            }
+        }
+        this.expectedMatches = matches;
+        this.expectedListed = listedCount;
+    }
+
+    /**
+     * Generates a set of worlds for the shipped config.yml.
+     *
+     * @param mix         The entity mix.
+     * @param entityCount Total entities across all worlds.
+     * @param worldCount  Number of worlds.
+     * @return The generated worlds.
+     */
+    static SyntheticWorlds generate(Mix mix, int entityCount, int worldCount) {
+        YamlConfiguration config = defaultConfig();
+        Set<EntityType> listed = EnumSet.noneOf(EntityType.class);
+        for (String name : config.getStringList("entities-to-clear")) {
+            listed.add(EntityType.valueOf(name.toUpperCase(Locale.ROOT)));
+        }
+        boolean skipNamed = config.getBoolean("cleanup-rules.skip-named", false);
+        // Fixed seed so every fork measures the same worlds
+        return new SyntheticWorlds(listed, skipNamed, mix, entityCount, worldCount, 0x5EEDL ^ entityCount ^ ((long) worldCount << 32));
+    }
+
+    /**
+     * Loads the rules from the config.yml shipped in the plugin jar.
+     *
+     * @return The default rules.
+     */
+    static EntityRules defaultRules() {
+        return EntityRules.load(defaultConfig(), null, "config.yml", Logger.getLogger("clearlag-bench"));
+    }
+
+    private static YamlConfiguration defaultConfig() {
+        try (InputStream in = SyntheticWorlds.class.getResourceAsStream("/config.yml")) {
+            if (in == null) {
+                throw new IllegalStateException("config.yml not found on the classpath");
+            }
+            return YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read config.yml", e);
+        }
+    }
+
+    List<FakeWorlds.FakeWorld> worlds() {
+        return worlds;
+    }
+
+    /**
+     * Gets the number of entities the rules must match, and a cleanup must remove.
+     */
+    int expectedMatches() {
+        return expectedMatches;
+    }
+
+    /**
+     * Gets the number of entities of a listed type, named or not: what a type-only check removes.
+     */
+    int expectedListed() {
+        return expectedListed;
+    }
+
+    /**
+     * Brings back every entity removed by the previous invocation.
+     */
+    void reset() {
+        for (FakeWorlds.FakeWorld world : worlds) {
+            world.reset();
+        }
+    }
+
+    int liveCount() {
+        int count = 0;
+        for (FakeWorlds.FakeWorld world : worlds) {
+            count += world.liveCount();
+        }
+        return count;
+    }
+}